@@ -0,0 +1,380 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.server;
+
+import io.undertow.Undertow;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedBinaryMessage;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketCallback;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import net.wessendorf.websocket.LatencyProbe;
+import org.xnio.ChannelListener;
+import org.xnio.Pooled;
+import org.xnio.XnioExecutor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.undertow.Handlers.path;
+import static io.undertow.Handlers.websocket;
+
+/**
+ * A local WebSocket server for benchmarks and soak tests of the client, without external services.
+ * It runs in one of the {@link Mode}s, on an Undertow listener. In the echo modes, latency probes
+ * get the server's receive and send time stamped in, see {@link LatencyProbe}.
+ *
+ * The server is a module of its own, packaged as runnable jar, after the client was installed:
+ *
+ * <pre>
+ * mvn -f benchmark-server/pom.xml package
+ * java -jar benchmark-server/target/simple-client-benchmark-server-0.9.0-SNAPSHOT.jar --port 9999 --path /echo --mode source --payload 64 --rate 10000
+ * </pre>
+ */
+public class BenchmarkServer {
+
+    public enum Mode {
+
+        /**
+         * Every message is sent back.
+         */
+        ECHO,
+
+        /**
+         * Messages are discarded.
+         */
+        SINK,
+
+        /**
+         * Messages of the payload size are sent to every connection at a fixed rate, inbound
+         * messages are discarded. A connection which does not keep up gets fewer messages, the
+         * server does not queue more than a limited number of them.
+         */
+        SOURCE,
+
+        /**
+         * Every message is sent back after the delay.
+         */
+        DELAYED_ECHO
+    }
+
+    // period of sending in source mode
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // messages per connection, which wait to be written in source mode
+    private static final int MAX_OUTSTANDING = 1024;
+
+    private String host = "localhost";
+    private int port = 9999;
+    private String path = "/echo";
+    private Mode mode = Mode.ECHO;
+    private int payloadSize = 64;
+    private boolean binary;
+    private int rate = 1000;
+    private long delayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private int ioThreads = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+
+    private Undertow undertow;
+
+    /**
+     * Host name or address of the listener, defaults to <code>localhost</code>.
+     */
+    public void setHost(final String host) {
+        this.host = host;
+    }
+
+    /**
+     * Port of the listener, defaults to 9999.
+     */
+    public void setPort(final int port) {
+        this.port = port;
+    }
+
+    /**
+     * Path of the WebSocket endpoint, defaults to <code>/echo</code>.
+     */
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    public void setMode(final Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Size of the messages sent in source mode, in bytes for binary and in characters for text messages.
+     */
+    public void setPayloadSize(final int payloadSize) {
+        if (payloadSize < 0) {
+            throw new IllegalArgumentException("payload size must not be negative");
+        }
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Whether binary or text messages are sent in source mode, defaults to text.
+     */
+    public void setBinary(final boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Messages per second and connection in source mode.
+     */
+    public void setRate(final int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * Delay of the delayed echo.
+     */
+    public void setDelay(final long delay, final TimeUnit unit) {
+        this.delayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Number of IO threads, at least two, since Undertow balances accepting connections between
+     * them. Defaults to the number of processors.
+     */
+    public void setIoThreads(final int ioThreads) {
+        if (ioThreads < 2) {
+            throw new IllegalArgumentException("at least two IO threads are needed");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getMessagesReceived() {
+        return received.get();
+    }
+
+    public long getMessagesSent() {
+        return sent.get();
+    }
+
+    public synchronized void start() {
+        undertow = Undertow.builder()
+                .addHttpListener(port, host)
+                .setIoThreads(ioThreads)
+                .setHandler(path().addPrefixPath(path, websocket(new WebSocketConnectionCallback() {
+                    @Override
+                    public void onConnect(final WebSocketHttpExchange exchange, final WebSocketChannel channel) {
+                        connected(channel);
+                    }
+                })))
+                .build();
+        undertow.start();
+    }
+
+    public synchronized void stop() {
+        if (undertow != null) {
+            undertow.stop();
+            undertow = null;
+        }
+    }
+
+    private void connected(final WebSocketChannel channel) {
+        connections.incrementAndGet();
+        channel.addCloseTask(new ChannelListener<WebSocketChannel>() {
+            @Override
+            public void handleEvent(final WebSocketChannel closed) {
+                connections.decrementAndGet();
+            }
+        });
+        if (mode == Mode.SOURCE) {
+            startSource(channel);
+        }
+
+        channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            @Override
+            protected void onFullTextMessage(final WebSocketChannel channel, final BufferedTextMessage message) {
+                received.incrementAndGet();
+                if (mode == Mode.ECHO) {
+                    WebSockets.sendText(message.getData(), channel, sendCompletion(null, null));
+                } else if (mode == Mode.DELAYED_ECHO) {
+                    final String data = message.getData();
+                    channel.getIoThread().executeAfter(new Runnable() {
+                        @Override
+                        public void run() {
+                            WebSockets.sendText(data, channel, sendCompletion(null, null));
+                        }
+                    }, delayNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            protected void onFullBinaryMessage(final WebSocketChannel channel, final BufferedBinaryMessage message) {
+                final long receivedAt = LatencyProbe.now();
+                received.incrementAndGet();
+                final Pooled<ByteBuffer[]> data = message.getData();
+                if (mode == Mode.ECHO) {
+                    stampProbe(data.getResource(), receivedAt);
+                    WebSockets.sendBinary(data.getResource(), channel, sendCompletion(data, null));
+                } else if (mode == Mode.DELAYED_ECHO) {
+                    channel.getIoThread().executeAfter(new Runnable() {
+                        @Override
+                        public void run() {
+                            stampProbe(data.getResource(), receivedAt);
+                            WebSockets.sendBinary(data.getResource(), channel, sendCompletion(data, null));
+                        }
+                    }, delayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    data.free();
+                }
+            }
+        });
+        channel.resumeReceives();
+    }
+
+    /**
+     * Sends the messages due since the last tick, the credit is capped at one second of messages,
+     * so a connection which falls behind does not get a burst. Messages are not sent while the
+     * connection has {@link #MAX_OUTSTANDING} sends which were not written yet, otherwise a slow
+     * client fills the heap of the server.
+     */
+    private void startSource(final WebSocketChannel channel) {
+        final String text = binary ? null : repeat('x', payloadSize);
+        final ByteBuffer bytes = binary ? ByteBuffer.allocateDirect(payloadSize) : null;
+        final AtomicInteger outstanding = new AtomicInteger();
+
+        final Runnable tick = new Runnable() {
+            private long last = System.nanoTime();
+            private double credit;
+
+            @Override
+            public void run() {
+                final long now = System.nanoTime();
+                credit = Math.min(credit + (now - last) * rate / 1e9, rate);
+                last = now;
+                while (credit >= 1 && channel.isOpen() && outstanding.get() < MAX_OUTSTANDING) {
+                    credit--;
+                    outstanding.incrementAndGet();
+                    if (binary) {
+                        WebSockets.sendBinary(bytes.duplicate(), channel, sendCompletion(null, outstanding));
+                    } else {
+                        WebSockets.sendText(text, channel, sendCompletion(null, outstanding));
+                    }
+                }
+            }
+        };
+        final XnioExecutor.Key key = channel.getIoThread().executeAtInterval(tick, TICK_NANOS, TimeUnit.NANOSECONDS);
+        channel.addCloseTask(new ChannelListener<WebSocketChannel>() {
+            @Override
+            public void handleEvent(final WebSocketChannel closed) {
+                key.remove();
+            }
+        });
+    }
+
+    /**
+     * Counts the sent message, frees the pooled buffers of an echoed message and releases the
+     * outstanding send of a source.
+     */
+    private WebSocketCallback<Void> sendCompletion(final Pooled<ByteBuffer[]> pooled, final AtomicInteger outstanding) {
+        return new WebSocketCallback<Void>() {
+            @Override
+            public void complete(final WebSocketChannel channel, final Void context) {
+                sent.incrementAndGet();
+                done();
+            }
+
+            @Override
+            public void onError(final WebSocketChannel channel, final Void context, final Throwable throwable) {
+                done();
+            }
+
+            private void done() {
+                if (pooled != null) {
+                    pooled.free();
+                }
+                if (outstanding != null) {
+                    outstanding.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    private static void stampProbe(final ByteBuffer[] data, final long receivedAt) {
+        if (data.length == 1 && LatencyProbe.isProbe(data[0])) {
+            final ByteBuffer probe = data[0];
+            probe.putLong(probe.position() + LatencyProbe.SERVER_RECEIVED_OFFSET, receivedAt);
+            probe.putLong(probe.position() + LatencyProbe.SERVER_SENT_OFFSET, LatencyProbe.now());
+        }
+    }
+
+    private static String repeat(final char c, final int count) {
+        final char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final BenchmarkServer server = new BenchmarkServer();
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                final String value = args[i + 1];
+                switch (args[i]) {
+                    case "--host": server.setHost(value); break;
+                    case "--port": server.setPort(Integer.parseInt(value)); break;
+                    case "--path": server.setPath(value); break;
+                    case "--mode": server.setMode(Mode.valueOf(value.toUpperCase(Locale.ENGLISH).replace('-', '_'))); break;
+                    case "--payload": server.setPayloadSize(Integer.parseInt(value)); break;
+                    case "--binary": server.setBinary(Boolean.parseBoolean(value)); break;
+                    case "--rate": server.setRate(Integer.parseInt(value)); break;
+                    case "--delay": server.setDelay(Long.parseLong(value), TimeUnit.MILLISECONDS); break;
+                    case "--io-threads": server.setIoThreads(Integer.parseInt(value)); break;
+                    default: throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("usage: BenchmarkServer [--host localhost] [--port 9999] [--path /echo]"
+                    + " [--mode echo|sink|source|delayed-echo] [--payload 64] [--binary false] [--rate 1000]"
+                    + " [--delay 10] [--io-threads n]");
+            System.exit(1);
+        }
+
+        server.start();
+        System.out.printf("%s server listening on ws://%s:%d%s%n", server.mode, server.host, server.port, server.path);
+
+        long lastReceived = 0;
+        long lastSent = 0;
+        while (true) {
+            Thread.sleep(5000);
+            final long received = server.getMessagesReceived();
+            final long sent = server.getMessagesSent();
+            System.out.printf("connections %d, received %.0f msg/s, sent %.0f msg/s%n",
+                    server.getConnections(), (received - lastReceived) / 5.0, (sent - lastSent) / 5.0);
+            lastReceived = received;
+            lastSent = sent;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.server;
+
+import net.wessendorf.websocket.LatencyProbe;
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.WebSocketHandler;
+import net.wessendorf.websocket.WebSocketHandlerAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BenchmarkServerTest {
+
+    private final BenchmarkServer server = new BenchmarkServer();
+    private final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+    private SimpleWebSocketClient client;
+
+    private final WebSocketHandler handler = new WebSocketHandlerAdapter() {
+        @Override
+        public void onMessage(String message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            final ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+            copy.put(message).flip();
+            received.add(copy);
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        server.setIoThreads(2);
+        client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        client.setWebSocketHandler(handler);
+    }
+
+    @After
+    public void shutdown() throws InterruptedException {
+        client.close();
+        server.stop();
+
+        // the listener is closed asynchronously, wait until the port is released for the next test
+        for (int i = 0; i < 50; i++) {
+            try {
+                new ServerSocket(9999).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @Test
+    public void echoStampsProbes() throws Exception {
+        server.start();
+        final LatencyProbe probe = new LatencyProbe(client, handler);
+        client.connect();
+
+        client.sendText("hello");
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("hello");
+
+        probe.probe();
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (probe.getReceived() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(probe.getServer().getCount()).isEqualTo(1);
+        assertThat(server.getMessagesReceived()).isEqualTo(2);
+    }
+
+    @Test
+    public void sinkDiscards() throws Exception {
+        server.setMode(BenchmarkServer.Mode.SINK);
+        server.start();
+        client.connect();
+
+        for (int i = 0; i < 10; i++) {
+            client.sendBinary(ByteBuffer.allocate(16));
+        }
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (server.getMessagesReceived() < 10 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(server.getMessagesReceived()).isEqualTo(10);
+        assertThat(received.poll(100, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(server.getConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void sourceSendsAtRate() throws Exception {
+        server.setMode(BenchmarkServer.Mode.SOURCE);
+        server.setBinary(true);
+        server.setPayloadSize(128);
+        server.setRate(500);
+        server.start();
+        client.connect();
+
+        Thread.sleep(1000);
+        final int count = received.size();
+
+        assertThat(count).isBetween(250, 750);
+        assertThat(((ByteBuffer) received.poll()).remaining()).isEqualTo(128);
+    }
+
+    @Test
+    public void delayedEcho() throws Exception {
+        server.setMode(BenchmarkServer.Mode.DELAYED_ECHO);
+        server.setDelay(200, TimeUnit.MILLISECONDS);
+        server.start();
+        client.connect();
+
+        final long start = System.nanoTime();
+        client.sendText("later");
+
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("later");
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+}
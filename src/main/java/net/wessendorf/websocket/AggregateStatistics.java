@@ -0,0 +1,118 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The aggregate over all clients of the JVM. Instead of updating shared counters on every message, which
+ * lets all clients contend for the same cache lines, the totals are summed up when they are read: the
+ * counters of the connected clients plus what the clients had counted when they were retired.
+ */
+final class AggregateStatistics extends Statistics {
+
+    private final Set<ClientStatistics> clients = Collections.newSetFromMap(new ConcurrentHashMap<ClientStatistics, Boolean>());
+
+    // counts of the retired clients, minus the totals at the last reset, guarded by this
+    private final long[] retired = new long[COUNTERS];
+
+    /**
+     * Includes the client in the aggregate, while it is connected.
+     */
+    void attach(final ClientStatistics client) {
+        clients.add(client);
+    }
+
+    /**
+     * Takes over the counts of the client, which is no longer summed up.
+     */
+    synchronized void detach(final ClientStatistics client) {
+        if (clients.remove(client)) {
+            retire(client);
+        }
+    }
+
+    synchronized void retire(final ClientStatistics client) {
+        client.report(retired);
+    }
+
+    private synchronized long[] totals() {
+        final long[] totals = retired.clone();
+        for (ClientStatistics client : clients) {
+            client.addUnreported(totals);
+        }
+        return totals;
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return totals()[MESSAGES_RECEIVED_INDEX];
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return totals()[MESSAGES_SENT_INDEX];
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return totals()[BYTES_RECEIVED_INDEX];
+    }
+
+    @Override
+    public long getBytesSent() {
+        return totals()[BYTES_SENT_INDEX];
+    }
+
+    @Override
+    public long getPendingSends() {
+        long pendingSends = 0;
+        for (ClientStatistics client : clients) {
+            pendingSends += client.getPendingSends();
+        }
+        return pendingSends;
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return totals()[RECONNECTS_INDEX];
+    }
+
+    @Override
+    public long getErrorCount() {
+        return totals()[ERRORS_INDEX];
+    }
+
+    @Override
+    public long getThrottledNanos() {
+        return totals()[THROTTLED_NANOS_INDEX];
+    }
+
+    @Override
+    public long getRejectedSends() {
+        return totals()[REJECTED_SENDS_INDEX];
+    }
+
+    @Override
+    public synchronized void reset() {
+        final long[] totals = totals();
+        for (int i = 0; i < COUNTERS; i++) {
+            retired[i] -= totals[i];
+        }
+    }
+}
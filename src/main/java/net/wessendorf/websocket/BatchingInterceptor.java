@@ -0,0 +1,424 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Packs small outbound messages into batches, sent as one binary frame, and unpacks inbound batches
+ * into the single messages, see {@link SimpleWebSocketClient#setInterceptors(WebSocketInterceptor...)}.
+ * This saves the frame overhead and the handler dispatch of the container for many small messages,
+ * the peer has to speak the same format.
+ *
+ * A batch starts with {@link #MAGIC}, followed by the messages: a type byte, {@link #TEXT} or
+ * {@link #BINARY}, the payload length as int and the payload, text in UTF-8. A batch is sent once
+ * it reaches the maximum size, or once its first message waited for the linger time, which is checked
+ * every half linger time, but at most every millisecond. Messages which do not fit into a batch,
+ * urgent messages and messages sent while the client is closing are sent on their own, after the
+ * pending batch, binary ones starting with the magic number as a batch of their own. Batches are sent with normal priority, the completion of a message is notified once
+ * its batch was written, or failed to be written.
+ *
+ * Messages are encoded straight into the buffer of the batch, buffers are reused once a batch was
+ * written. Full batches are sent by the thread which filled them, expired ones by the shared writer
+ * threads. The pending batch is sent before the client closes.
+ *
+ * One instance serves a single client, it belongs first into the pipeline, next to the network.
+ * Inbound binary messages which start with the magic number are always taken as batch, malformed
+ * batches are reported to the handler as error.
+ */
+public class BatchingInterceptor implements WebSocketInterceptor {
+
+    public static final int MAGIC = 0x57534231;
+    public static final byte TEXT = 1;
+    public static final byte BINARY = 2;
+
+    private static final Logger logger = Logger.getLogger(BatchingInterceptor.class.getName());
+
+    private static final int HEADER = 4;
+    private static final int RECORD_HEADER = 5;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MIN_TICK = TimeUnit.MILLISECONDS.toNanos(1);
+    // the linger ticker stops after the interceptor was idle for this long
+    private static final long IDLE = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final long tickNanos;
+
+    private final Object lock = new Object();
+    // the following fields are guarded by the lock
+    private Batch batch;
+    private long lastStarted;
+    private ScheduledFuture<?> ticker;
+
+    private volatile InterceptorContext context;
+
+    // batches which are ready, in the order they are sent
+    private final Queue<Batch> ready = new ConcurrentLinkedQueue<Batch>();
+    private final ReentrantLock sending = new ReentrantLock();
+    private final Queue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedMessages = new AtomicLong();
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (lingerExpired()) {
+                ClientScheduler.writers().execute(drain);
+            }
+        }
+    };
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * @param maxBatchSize the maximum size of a batch in bytes, including the headers
+     * @param linger the maximum time a message waits for more messages
+     * @param unit the unit of the linger time
+     */
+    public BatchingInterceptor(final int maxBatchSize, final long linger, final TimeUnit unit) {
+        if (maxBatchSize <= HEADER + RECORD_HEADER) {
+            throw new IllegalArgumentException("batch size too small");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.lingerNanos = unit.toNanos(linger);
+        this.tickNanos = Math.max(lingerNanos / 2, MIN_TICK);
+    }
+
+    /**
+     * Number of batches sent.
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * Number of messages sent in batches.
+     */
+    public long getBatchedMessages() {
+        return batchedMessages.get();
+    }
+
+    /**
+     * Sends the pending batch now, and waits until all batches were passed on.
+     */
+    public void flush() {
+        synchronized (lock) {
+            ship();
+        }
+        sendReady();
+    }
+
+    @Override
+    public void flush(final InterceptorContext context) {
+        flush();
+        context.flush();
+    }
+
+    @Override
+    public void sendText(final String payload, final SendPriority priority, final SendHandler completion, final InterceptorContext context) {
+        final int length = Utf8.length(payload);
+        if (bypass(priority, length, context)) {
+            flush();
+            context.sendText(payload, priority, completion);
+            return;
+        }
+        final boolean shipped;
+        synchronized (lock) {
+            final ByteBuffer buffer = batchFor(length, context).buffer;
+            final int position = buffer.position();
+            buffer.put(position, TEXT).putInt(position + 1, length);
+            Utf8.encode(payload, buffer, position + RECORD_HEADER);
+            buffer.position(position + RECORD_HEADER + length);
+            shipped = added(completion);
+        }
+        if (shipped) {
+            drain();
+        }
+    }
+
+    @Override
+    public void sendBinary(final ByteBuffer payload, final SendPriority priority, final SendHandler completion, final InterceptorContext context) {
+        final int length = payload.remaining();
+        if (bypass(priority, length, context)) {
+            flush();
+            context.sendBinary(escape(payload), priority, completion);
+            return;
+        }
+        final boolean shipped;
+        synchronized (lock) {
+            batchFor(length, context).buffer.put(BINARY).putInt(length).put(payload.duplicate());
+            shipped = added(completion);
+        }
+        if (shipped) {
+            drain();
+        }
+    }
+
+    @Override
+    public void onMessage(final String message, final InterceptorContext context) {
+        context.fireMessage(message);
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message, final InterceptorContext context) {
+        final int start = message.position();
+        if (message.remaining() < HEADER || message.getInt(start) != MAGIC) {
+            context.fireMessage(message);
+            return;
+        }
+
+        // the whole batch is checked first, so a malformed one delivers no message at all
+        final String malformed = validate(message);
+        if (malformed != null) {
+            context.fireError(new IllegalStateException("malformed batch, " + malformed));
+            return;
+        }
+
+        final int limit = message.limit();
+        int position = start + HEADER;
+        while (position < limit) {
+            final byte type = message.get(position);
+            final int length = message.getInt(position + 1);
+            final int payload = position + RECORD_HEADER;
+
+            final ByteBuffer slice = message.duplicate();
+            slice.limit(payload + length).position(payload);
+            if (type == TEXT) {
+                context.fireMessage(UTF_8.decode(slice).toString());
+            } else {
+                context.fireMessage(slice.slice());
+            }
+            position = payload + length;
+        }
+    }
+
+    /**
+     * @return what is wrong with the batch, or <code>null</code> if it is well-formed
+     */
+    private static String validate(final ByteBuffer message) {
+        final int start = message.position();
+        final int limit = message.limit();
+        int position = start + HEADER;
+        while (position < limit) {
+            if (limit - position < RECORD_HEADER) {
+                return "truncated header at " + (position - start);
+            }
+            final byte type = message.get(position);
+            if (type != TEXT && type != BINARY) {
+                return "unknown type " + type + " at " + (position - start);
+            }
+            final int length = message.getInt(position + 1);
+            final int payload = position + RECORD_HEADER;
+            if (length < 0 || length > limit - payload) {
+                return "invalid length at " + (position - start);
+            }
+            position = payload + length;
+        }
+        return null;
+    }
+
+    /**
+     * A binary message starting with the magic number would be taken as batch by the peer, so it is
+     * wrapped into a batch of its own.
+     */
+    private static ByteBuffer escape(final ByteBuffer payload) {
+        final int length = payload.remaining();
+        if (length < HEADER || payload.getInt(payload.position()) != MAGIC) {
+            return payload;
+        }
+        final ByteBuffer batch = ByteBuffer.allocate(HEADER + RECORD_HEADER + length);
+        batch.putInt(MAGIC).put(BINARY).putInt(length).put(payload.duplicate()).flip();
+        return batch;
+    }
+
+    /**
+     * Urgent and large messages, and messages while the client is closing, are not batched. The
+     * client rejects the latter, like any other send while it is closing.
+     */
+    private boolean bypass(final SendPriority priority, final int length, final InterceptorContext context) {
+        return priority == SendPriority.URGENT || length > maxBatchSize - HEADER - RECORD_HEADER
+                || context.getClient().getReadyState() == ReadyState.CLOSING;
+    }
+
+    /**
+     * The batch to add a message of the given length to, the current one is shipped if it is too full.
+     */
+    private Batch batchFor(final int length, final InterceptorContext context) {
+        this.context = context;
+        if (batch != null && batch.buffer.remaining() < RECORD_HEADER + length) {
+            ship();
+        }
+        if (batch == null) {
+            final Batch recycled = free.poll();
+            batch = (recycled != null) ? recycled : new Batch(maxBatchSize);
+            batch.buffer.putInt(MAGIC);
+            batch.started = System.nanoTime();
+            lastStarted = batch.started;
+            if (ticker == null) {
+                ticker = ClientScheduler.get().scheduleAtFixedRate(tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * @return true if the batch is full now and was shipped
+     */
+    private boolean added(final SendHandler completion) {
+        batch.add(completion);
+        if (batch.buffer.remaining() < RECORD_HEADER) {
+            ship();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the pending batch to the ready ones, with the lock held.
+     */
+    private void ship() {
+        if (batch == null) {
+            return;
+        }
+        batch.buffer.flip();
+        batches.incrementAndGet();
+        batchedMessages.addAndGet(batch.messages);
+        ready.offer(batch);
+        batch = null;
+    }
+
+    /**
+     * Runs on the scheduler thread, which must not send: ships the pending batch if it waited for
+     * the linger time, and stops ticking once the interceptor is idle.
+     *
+     * @return true if a batch was shipped
+     */
+    private boolean lingerExpired() {
+        synchronized (lock) {
+            final long now = System.nanoTime();
+            if (batch != null && now - batch.started >= lingerNanos) {
+                ship();
+                return true;
+            }
+            if (batch == null && now - lastStarted >= IDLE) {
+                ticker.cancel(false);
+                ticker = null;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sends the ready batches, unless another thread is sending: that thread picks them up, since
+     * it checks for ready batches after it released the lock.
+     */
+    private void drain() {
+        while (!ready.isEmpty() && sending.tryLock()) {
+            try {
+                sendLocked();
+            } finally {
+                sending.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends the ready batches, waiting for a thread which is sending.
+     */
+    private void sendReady() {
+        sending.lock();
+        try {
+            sendLocked();
+        } finally {
+            sending.unlock();
+        }
+        drain();
+    }
+
+    private void sendLocked() {
+        final InterceptorContext context = this.context;
+        Batch next;
+        while ((next = ready.poll()) != null) {
+            try {
+                context.sendBinary(next.buffer, SendPriority.NORMAL, next);
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "batch of " + next.messages + " messages not sent", e);
+                next.onResult(new SendResult(e));
+            }
+        }
+    }
+
+    /**
+     * A reusable batch: its buffer and the completions of its messages, notified once the batch
+     * was written. The batch is free again afterwards.
+     */
+    private final class Batch implements SendHandler {
+        private final ByteBuffer buffer;
+        private SendHandler[] completions = new SendHandler[8];
+        private int count;
+        private int messages;
+        private long started;
+
+        private Batch(final int size) {
+            this.buffer = ByteBuffer.allocate(size);
+        }
+
+        private void add(final SendHandler completion) {
+            messages++;
+            if (completion == null) {
+                return;
+            }
+            if (count == completions.length) {
+                completions = Arrays.copyOf(completions, count * 2);
+            }
+            completions[count++] = completion;
+        }
+
+        @Override
+        public void onResult(final SendResult result) {
+            try {
+                for (int i = 0; i < count; i++) {
+                    completions[i].onResult(result);
+                }
+            } finally {
+                Arrays.fill(completions, 0, count, null);
+                count = 0;
+                messages = 0;
+                buffer.clear();
+                free.offer(this);
+            }
+        }
+    }
+}
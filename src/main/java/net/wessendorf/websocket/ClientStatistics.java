@@ -0,0 +1,127 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Statistics of a single client. The updates are not applied to the aggregate, which sums
+ * up the clients when it is read.
+ */
+class ClientStatistics extends Statistics implements WebSocketClientStatisticsMXBean {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final SimpleWebSocketClient client;
+    private final int id;
+
+    // the counts the aggregate has already taken over, allocated on the first one, guarded by the aggregate
+    private long[] reported;
+
+    private volatile long lastRoundTripNanos = -1;
+    private volatile HandshakeTimings lastHandshake;
+    private ObjectName objectName;
+
+    ClientStatistics(final SimpleWebSocketClient client) {
+        this.client = client;
+        this.id = IDS.incrementAndGet();
+    }
+
+    /**
+     * Adds the counts, which the aggregate has not taken over yet, to the given totals.
+     */
+    void addUnreported(final long[] totals) {
+        final long[] counters = counters();
+        for (int i = 0; i < COUNTERS; i++) {
+            totals[i] += (reported != null) ? counters[i] - reported[i] : counters[i];
+        }
+    }
+
+    /**
+     * Moves the counts, which the aggregate has not taken over yet, to the given totals.
+     */
+    void report(final long[] totals) {
+        final long[] counters = counters();
+        for (int i = 0; i < COUNTERS; i++) {
+            totals[i] += (reported != null) ? counters[i] - reported[i] : counters[i];
+        }
+        reported = counters;
+    }
+
+    @Override
+    public void reset() {
+        synchronized (AGGREGATE) {
+            AGGREGATE.retire(this);
+            super.reset();
+            reported = null;
+        }
+    }
+
+    void roundTrip(final long nanos) {
+        lastRoundTripNanos = nanos;
+    }
+
+    void handshake(final HandshakeTimings timings) {
+        lastHandshake = timings;
+    }
+
+    @Override
+    public String getURI() {
+        return client.getWebsocketURI().toString();
+    }
+
+    @Override
+    public ReadyState getReadyState() {
+        return client.getReadyState();
+    }
+
+    @Override
+    public long getLastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    @Override
+    public long getLastDnsNanos() {
+        final HandshakeTimings handshake = lastHandshake;
+        return (handshake != null) ? handshake.getDnsNanos() : -1;
+    }
+
+    @Override
+    public long getLastUpgradeNanos() {
+        final HandshakeTimings handshake = lastHandshake;
+        return (handshake != null) ? handshake.getUpgradeNanos() : -1;
+    }
+
+    @Override
+    public long getLastConnectNanos() {
+        final HandshakeTimings handshake = lastHandshake;
+        return (handshake != null) ? handshake.getTotalNanos() : -1;
+    }
+
+    synchronized void register() {
+        if (objectName == null) {
+            objectName = register(this, DOMAIN + ":type=SimpleWebSocketClient,name=" + ObjectName.quote(client.getWebsocketURI() + "#" + id));
+        }
+    }
+
+    synchronized void unregister() {
+        if (objectName != null) {
+            unregister(objectName);
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future for the final close code of a connection, completed by whoever gets there first:
+ * the close frame of the peer or the deadline of the graceful close.
+ */
+class CloseFuture implements Future<Integer> {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Integer closeCode;
+
+    /**
+     * Completes the future, returns <code>false</code> if it was already completed.
+     */
+    synchronized boolean complete(final int closeCode) {
+        if (this.closeCode != null) {
+            return false;
+        }
+        this.closeCode = closeCode;
+        done.countDown();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return closeCode != null;
+    }
+
+    @Override
+    public Integer get() throws InterruptedException {
+        done.await();
+        return closeCode;
+    }
+
+    @Override
+    public Integer get(final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return closeCode;
+    }
+}
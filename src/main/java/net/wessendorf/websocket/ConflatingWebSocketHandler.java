@@ -0,0 +1,136 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples a slow {@link WebSocketHandler} from the container: inbound messages are stored in a
+ * latest-value map, keyed by a {@link ConflationKeyExtractor}, and are drained on the given executor.
+ * If the handler falls behind, only the newest message per key is delivered, so memory is bounded by
+ * the number of keys. Keys are delivered in the order they first became pending.
+ *
+ * <pre>
+ * client.setWebSocketHandler(new ConflatingWebSocketHandler(handler, extractor, executor));
+ * </pre>
+ *
+ * At most one task on the executor invokes the handler, close and error events wait behind the
+ * keys which were pending before them. A binary message is kept as a copy while it waits.
+ */
+public class ConflatingWebSocketHandler implements WebSocketHandler {
+
+    private final WebSocketHandler delegate;
+    private final ConflationKeyExtractor keyExtractor;
+    private final Executor executor;
+
+    private final ConcurrentMap<Object, Object> latest = new ConcurrentHashMap<Object, Object>();
+    // pending keys, plus the close and error events which are delivered after the messages
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<Object>();
+    private final AtomicLong conflated = new AtomicLong();
+
+    private final SerialDrain drain = new SerialDrain() {
+        @Override
+        protected void drainOnce() {
+            Object next;
+            while ((next = pending.poll()) != null) {
+                if (next instanceof HandlerEvent) {
+                    ((HandlerEvent) next).deliverTo(delegate);
+                } else {
+                    try {
+                        deliver(latest.remove(next));
+                    } catch (RuntimeException e) {
+                        delegate.onError(e);
+                    }
+                }
+            }
+        }
+    };
+
+    public ConflatingWebSocketHandler(final WebSocketHandler delegate, final ConflationKeyExtractor keyExtractor, final Executor executor) {
+        this.delegate = Objects.requireNonNull(delegate, "no handler given");
+        this.keyExtractor = Objects.requireNonNull(keyExtractor, "no key extractor given");
+        this.executor = Objects.requireNonNull(executor, "no executor given");
+    }
+
+    /**
+     * Number of messages which have been replaced by a newer one, before they were delivered.
+     */
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    @Override
+    public void onOpen() {
+        delegate.onOpen();
+    }
+
+    @Override
+    public void onClose(final int closeCode, final String reason) {
+        pending.offer(HandlerEvent.closed(closeCode, reason));
+        schedule();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        pending.offer(HandlerEvent.failed(throwable));
+        schedule();
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        offer(keyExtractor.keyOf(message), message);
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        final Object key = keyExtractor.keyOf(message);
+        offer(key, SerialDrain.copy(message));
+    }
+
+    private void offer(final Object key, final Object message) {
+        Objects.requireNonNull(key, "no conflation key for message");
+
+        // only a key without a pending value needs to be queued, otherwise the drain
+        // has not yet taken the old value and will pick up the new one
+        if (latest.put(key, message) == null) {
+            pending.offer(key);
+            schedule();
+        } else {
+            conflated.incrementAndGet();
+        }
+    }
+
+    private void schedule() {
+        if (drain.enter()) {
+            executor.execute(drain);
+        }
+    }
+
+    private void deliver(final Object message) {
+        if (message instanceof String) {
+            delegate.onMessage((String) message);
+        } else if (message instanceof ByteBuffer) {
+            delegate.onMessage((ByteBuffer) message);
+        }
+    }
+}
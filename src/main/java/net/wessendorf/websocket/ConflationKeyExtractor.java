@@ -0,0 +1,42 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts the conflation key of inbound messages, e.g. the instrument of a market data update.
+ * Messages with equal keys replace each other while they wait for delivery.
+ *
+ * @see ConflatingWebSocketHandler
+ */
+public interface ConflationKeyExtractor {
+
+    /**
+     * Returns the (non null) key of the given text message.
+     *
+     * @param message the text message.
+     */
+    Object keyOf(String message);
+
+    /**
+     * Returns the (non null) key of the given binary message. The position of the buffer
+     * must not be changed.
+     *
+     * @param message the binary message.
+     */
+    Object keyOf(ByteBuffer message);
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * Receives the events of a connection with decoded messages, see {@link ParallelDecodingWebSocketHandler}.
+ *
+ * @param <T> the type of the decoded messages
+ */
+public interface DecodedMessageHandler<T> {
+
+    /**
+     * Invoked after the connection was established.
+     */
+    void onOpen();
+
+    /**
+     * Invoked after the connection was closed.
+     *
+     * @param closeCode the RFC 6455 status code
+     * @param reason the reason, may be <code>null</code>
+     */
+    void onClose(int closeCode, String reason);
+
+    /**
+     * Invoked after an error, including failures of the decoder.
+     *
+     * @param throwable the cause
+     */
+    void onError(Throwable throwable);
+
+    /**
+     * Invoked for a decoded message.
+     *
+     * @param message the decoded message
+     */
+    void onMessage(T message);
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * An open, close or error event, held back until a {@link SerialDrain} passes it on to the handler.
+ */
+final class HandlerEvent {
+
+    static final HandlerEvent OPENED = new HandlerEvent(false, 0, null, null);
+
+    private final boolean failure;
+    private final int closeCode;
+    private final String reason;
+    private final Throwable throwable;
+
+    private HandlerEvent(final boolean failure, final int closeCode, final String reason, final Throwable throwable) {
+        this.failure = failure;
+        this.closeCode = closeCode;
+        this.reason = reason;
+        this.throwable = throwable;
+    }
+
+    static HandlerEvent closed(final int closeCode, final String reason) {
+        return new HandlerEvent(false, closeCode, reason, null);
+    }
+
+    static HandlerEvent failed(final Throwable throwable) {
+        return new HandlerEvent(true, 0, null, throwable);
+    }
+
+    void deliverTo(final WebSocketHandler handler) {
+        if (this == OPENED) {
+            handler.onOpen();
+        } else if (failure) {
+            handler.onError(throwable);
+        } else {
+            handler.onClose(closeCode, reason);
+        }
+    }
+
+    void deliverTo(final DecodedMessageHandler<?> handler) {
+        if (this == OPENED) {
+            handler.onOpen();
+        } else if (failure) {
+            handler.onError(throwable);
+        } else {
+            handler.onClose(closeCode, reason);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.HandshakeResponse;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Takes the timestamps of the opening handshake, from the container's callbacks, and adds
+ * the custom headers to the upgrade request.
+ */
+class HandshakeTimer extends ClientEndpointConfig.Configurator {
+
+    private final long startedAt;
+    private final long dnsNanos;
+    private final Map<String, List<String>> headers;
+    private volatile long requestAt;
+    private volatile long responseAt;
+
+    HandshakeTimer(final long startedAt, final long dnsNanos, final Map<String, List<String>> headers) {
+        this.startedAt = startedAt;
+        this.dnsNanos = dnsNanos;
+        this.headers = headers;
+    }
+
+    @Override
+    public void beforeRequest(final Map<String, List<String>> headers) {
+        requestAt = System.nanoTime();
+        headers.putAll(this.headers);
+    }
+
+    @Override
+    public void afterResponse(final HandshakeResponse response) {
+        responseAt = System.nanoTime();
+    }
+
+    HandshakeTimings opened() {
+        final long upgrade = (requestAt != 0 && responseAt != 0) ? responseAt - requestAt : -1;
+        return new HandshakeTimings(dnsNanos, upgrade, System.nanoTime() - startedAt);
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * Breakdown of the time spent for establishing a connection, all durations in nanoseconds.
+ *
+ * The JSR 356 API does not tell apart TCP connect, TLS handshake and the HTTP upgrade: the
+ * container starts the handshake by opening the connection. Those are covered by the upgrade
+ * duration, while the name resolution is done, and timed, by the client in advance. Comparing the
+ * upgrade with the ping round trip time shows if the network or the server is slow.
+ */
+public final class HandshakeTimings {
+
+    private final long dnsNanos;
+    private final long upgradeNanos;
+    private final long totalNanos;
+
+    HandshakeTimings(final long dnsNanos, final long upgradeNanos, final long totalNanos) {
+        this.dnsNanos = dnsNanos;
+        this.upgradeNanos = upgradeNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Time for resolving the host name.
+     */
+    public long getDnsNanos() {
+        return dnsNanos;
+    }
+
+    /**
+     * Time from the container starting the handshake until the upgrade response arrived: TCP connect,
+     * TLS handshake and the HTTP upgrade round trip. <code>-1</code> if the container did not report it.
+     */
+    public long getUpgradeNanos() {
+        return upgradeNanos;
+    }
+
+    /**
+     * Time from calling {@link SimpleWebSocketClient#connect()} until the connection was open.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "HandshakeTimings{dns=" + dnsNanos + "ns, upgrade=" + upgradeNanos + "ns, total=" + totalNanos + "ns}";
+    }
+}
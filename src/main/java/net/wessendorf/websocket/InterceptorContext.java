@@ -0,0 +1,84 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import java.nio.ByteBuffer;
+
+/**
+ * The position of a {@link WebSocketInterceptor} in the pipeline of a client, passing messages on
+ * to its neighbours. Contexts are created once, when the interceptors are set, and are used for
+ * all messages.
+ */
+public final class InterceptorContext {
+
+    private final InterceptorPipeline pipeline;
+    private final int index;
+
+    InterceptorContext(final InterceptorPipeline pipeline, final int index) {
+        this.pipeline = pipeline;
+        this.index = index;
+    }
+
+    /**
+     * The client of the pipeline.
+     */
+    public SimpleWebSocketClient getClient() {
+        return pipeline.getClient();
+    }
+
+    /**
+     * Passes an inbound text message to the next interceptor, or to the handler.
+     */
+    public void fireMessage(final String message) {
+        pipeline.fireMessage(index + 1, message);
+    }
+
+    /**
+     * Passes an inbound binary message to the next interceptor, or to the handler.
+     */
+    public void fireMessage(final ByteBuffer message) {
+        pipeline.fireMessage(index + 1, message);
+    }
+
+    /**
+     * Reports a failure of the inbound processing to the handler, e.g. a malformed message.
+     */
+    public void fireError(final Throwable throwable) {
+        pipeline.fireError(throwable);
+    }
+
+    /**
+     * Passes an outbound text message to the previous interceptor, or to the container.
+     */
+    public void sendText(final String payload, final SendPriority priority, final SendHandler completion) {
+        pipeline.sendText(index - 1, payload, priority, completion);
+    }
+
+    /**
+     * Passes an outbound binary message to the previous interceptor, or to the container.
+     */
+    public void sendBinary(final ByteBuffer payload, final SendPriority priority, final SendHandler completion) {
+        pipeline.sendBinary(index - 1, payload, priority, completion);
+    }
+
+    /**
+     * Passes the flush before the close on to the previous interceptor.
+     */
+    public void flush() {
+        pipeline.flush(index - 1);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import java.nio.ByteBuffer;
+
+/**
+ * The interceptors of a client, with their contexts prebuilt into arrays, so no objects are created
+ * per message. A pipeline is immutable: changing the interceptors publishes a new one, messages which
+ * are passing the old pipeline finish on it.
+ */
+final class InterceptorPipeline {
+
+    private final SimpleWebSocketClient client;
+    private final WebSocketInterceptor[] interceptors;
+    private final InterceptorContext[] contexts;
+
+    InterceptorPipeline(final SimpleWebSocketClient client, final WebSocketInterceptor[] interceptors) {
+        this.client = client;
+        this.interceptors = interceptors.clone();
+        this.contexts = new InterceptorContext[interceptors.length];
+        for (int i = 0; i < interceptors.length; i++) {
+            if (interceptors[i] == null) {
+                throw new NullPointerException("interceptor " + i + " is null");
+            }
+            contexts[i] = new InterceptorContext(this, i);
+        }
+    }
+
+    SimpleWebSocketClient getClient() {
+        return client;
+    }
+
+    void fireMessage(final int index, final String message) {
+        if (index < interceptors.length) {
+            interceptors[index].onMessage(message, contexts[index]);
+        } else {
+            client.deliver(message);
+        }
+    }
+
+    void fireMessage(final int index, final ByteBuffer message) {
+        if (index < interceptors.length) {
+            interceptors[index].onMessage(message, contexts[index]);
+        } else {
+            client.deliver(message);
+        }
+    }
+
+    void fireError(final Throwable throwable) {
+        client.fail(throwable);
+    }
+
+    void sendText(final int index, final String payload, final SendPriority priority, final SendHandler completion) {
+        if (index >= 0) {
+            interceptors[index].sendText(payload, priority, completion, contexts[index]);
+        } else {
+            client.writeText(payload, priority, completion);
+        }
+    }
+
+    void sendBinary(final int index, final ByteBuffer payload, final SendPriority priority, final SendHandler completion) {
+        if (index >= 0) {
+            interceptors[index].sendBinary(payload, priority, completion, contexts[index]);
+        } else {
+            client.writeBinary(payload, priority, completion);
+        }
+    }
+
+    void flush(final int index) {
+        if (index >= 0) {
+            interceptors[index].flush(contexts[index]);
+        }
+    }
+
+    /**
+     * Entry point of outbound messages, at the interceptor next to the handler.
+     */
+    int last() {
+        return interceptors.length - 1;
+    }
+}
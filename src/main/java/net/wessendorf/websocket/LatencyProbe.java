@@ -0,0 +1,262 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the latency of a connection with probe messages, which are echoed by the server.
+ *
+ * A probe is a binary message of {@link #LENGTH} bytes: the {@link #MAGIC} number, a sequence number
+ * and the client's send timestamp. A server may stamp its receive and send times into the probe,
+ * at {@link #SERVER_RECEIVED_OFFSET} and {@link #SERVER_SENT_OFFSET}, taken from {@link #now()}
+ * or an equivalent clock. That splits the round trip into the client's send path, the server's
+ * processing and the network. The one way latencies are only meaningful with synchronized clocks,
+ * negative values are recorded as zero.
+ *
+ * The probe sets itself as handler of the client, all other events and messages are passed on to
+ * the given delegate. Lost probes and probes arriving out of order are detected by their sequence.
+ */
+public class LatencyProbe implements WebSocketHandler {
+
+    public static final int MAGIC = 0x50524f42;
+    public static final int LENGTH = 36;
+    public static final int SEQUENCE_OFFSET = 4;
+    public static final int CLIENT_SENT_OFFSET = 12;
+    public static final int SERVER_RECEIVED_OFFSET = 20;
+    public static final int SERVER_SENT_OFFSET = 28;
+
+    private static final long EPOCH_NANOS = System.currentTimeMillis() * 1000000L;
+    private static final long START_NANOS = System.nanoTime();
+
+    private final SimpleWebSocketClient client;
+    private final WebSocketHandler delegate;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private ScheduledFuture<?> schedule;
+
+    private final LatencyHistogram roundTrip = new LatencyHistogram();
+    private final LatencyHistogram clientSend = new LatencyHistogram();
+    private final LatencyHistogram server = new LatencyHistogram();
+    private final LatencyHistogram network = new LatencyHistogram();
+    private final LatencyHistogram outbound = new LatencyHistogram();
+    private final LatencyHistogram inbound = new LatencyHistogram();
+
+    // written by the receiving thread only
+    private volatile long received;
+    private volatile long expected;
+    private volatile long lost;
+    private volatile long reordered;
+
+    /**
+     * @param client the client to probe, the probe becomes its handler
+     * @param delegate receives all events, except the probes, may be <code>null</code>
+     */
+    public LatencyProbe(final SimpleWebSocketClient client, final WebSocketHandler delegate) {
+        this.client = client;
+        this.delegate = (delegate != null) ? delegate : new WebSocketHandlerAdapter();
+        client.setWebSocketHandler(this);
+    }
+
+    /**
+     * The probe clock: monotonic nanoseconds, anchored to the wall clock at startup, so it is
+     * comparable between hosts with synchronized clocks.
+     */
+    public static long now() {
+        return EPOCH_NANOS + (System.nanoTime() - START_NANOS);
+    }
+
+    /**
+     * Whether the given message is a probe, the position is not changed.
+     */
+    public static boolean isProbe(final ByteBuffer message) {
+        return message.remaining() == LENGTH && message.getInt(message.position()) == MAGIC;
+    }
+
+    /**
+     * Sends a single probe.
+     */
+    public void probe() {
+        probe(now());
+    }
+
+    private void probe(final long sentAt) {
+        final ByteBuffer probe = ByteBuffer.allocate(LENGTH);
+        probe.putInt(MAGIC).putLong(sequence.getAndIncrement()).putLong(sentAt).putLong(0).putLong(0).flip();
+        client.sendBinary(probe, new SendHandler() {
+            @Override
+            public void onResult(final SendResult result) {
+                if (result.isOK()) {
+                    clientSend.record(now() - sentAt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends probes periodically, from the shared scheduler thread, while the client is open. The probes
+     * carry the time they were due, so a delayed scheduler or a blocked send adds to the measured
+     * latencies, instead of being omitted.
+     */
+    public synchronized void start(final long period, final TimeUnit unit) {
+        stop();
+        final long periodNanos = unit.toNanos(period);
+        final long first = now() + periodNanos;
+        schedule = ClientScheduler.get().scheduleAtFixedRate(new Runnable() {
+            private long due = first;
+
+            @Override
+            public void run() {
+                final long sentAt = due;
+                due += periodNanos;
+                if (client.getReadyState() == ReadyState.OPEN) {
+                    probe(sentAt);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /**
+     * From sending the probe, or the time it was due if sent periodically, until its echo arrived.
+     */
+    public LatencyHistogram getRoundTrip() {
+        return roundTrip;
+    }
+
+    /**
+     * From sending the probe until the container wrote it.
+     */
+    public LatencyHistogram getClientSend() {
+        return clientSend;
+    }
+
+    /**
+     * From the server receiving the probe until sending it back, if stamped by the server.
+     */
+    public LatencyHistogram getServer() {
+        return server;
+    }
+
+    /**
+     * The round trip, without the server's processing, if stamped by the server.
+     */
+    public LatencyHistogram getNetwork() {
+        return network;
+    }
+
+    /**
+     * From sending the probe until the server received it, needs synchronized clocks.
+     */
+    public LatencyHistogram getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * From the server sending the probe until it arrived, needs synchronized clocks.
+     */
+    public LatencyHistogram getInbound() {
+        return inbound;
+    }
+
+    public long getSent() {
+        return sequence.get();
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Probes, which did not arrive, so far. A probe arriving late is no longer counted.
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * Probes, which arrived after a probe sent later.
+     */
+    public long getReordered() {
+        return reordered;
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        if (!isProbe(message)) {
+            delegate.onMessage(message);
+            return;
+        }
+        final long arrivedAt = now();
+        final int position = message.position();
+        final long probeSequence = message.getLong(position + SEQUENCE_OFFSET);
+        final long sentAt = message.getLong(position + CLIENT_SENT_OFFSET);
+        final long serverReceived = message.getLong(position + SERVER_RECEIVED_OFFSET);
+        final long serverSent = message.getLong(position + SERVER_SENT_OFFSET);
+
+        received++;
+        if (probeSequence == expected) {
+            expected++;
+        } else if (probeSequence > expected) {
+            lost += probeSequence - expected;
+            expected = probeSequence + 1;
+        } else {
+            reordered++;
+            lost--;
+        }
+
+        final long rtt = arrivedAt - sentAt;
+        roundTrip.record(rtt);
+        if (serverReceived != 0 && serverSent != 0) {
+            server.record(serverSent - serverReceived);
+            network.record(rtt - (serverSent - serverReceived));
+            outbound.record(serverReceived - sentAt);
+            inbound.record(arrivedAt - serverSent);
+        }
+    }
+
+    @Override
+    public void onOpen() {
+        delegate.onOpen();
+    }
+
+    @Override
+    public void onClose(final int closeCode, final String reason) {
+        stop();
+        delegate.onClose(closeCode, reason);
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        delegate.onError(throwable);
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        delegate.onMessage(message);
+    }
+}
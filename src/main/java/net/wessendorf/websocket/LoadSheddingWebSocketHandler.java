@@ -0,0 +1,250 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Protects the container and the heap from a burst of inbound messages, which arrive faster than
+ * the {@link WebSocketHandler} processes them: messages are put into a bounded queue, which is
+ * drained on the given executor. Once the queue is full, messages are shed according to the
+ * {@link Policy}.
+ *
+ * <pre>
+ * new LoadSheddingWebSocketHandler(client, handler, 1024, Policy.DROP_OLDEST, executor);
+ * </pre>
+ *
+ * The handler sets itself as handler of the client. At most one task on the executor invokes the
+ * delegate, and it delivers the queued messages before the close and error events. The queue holds
+ * copies of binary messages, a shed binary message is dropped before it is copied.
+ */
+public class LoadSheddingWebSocketHandler implements WebSocketHandler {
+
+    /**
+     * What happens to a message, which arrives while the queue is full.
+     */
+    public enum Policy {
+
+        /**
+         * The arriving message is dropped.
+         */
+        DROP_NEWEST,
+
+        /**
+         * The oldest queued message is dropped, to make room for the arriving one.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Once the queue is half full, only every n-th arriving message is queued, see
+         * {@link #setSampleRate(int)}. Messages arriving while the queue is full are dropped.
+         */
+        SAMPLE,
+
+        /**
+         * The connection is closed with 1008, policy violation.
+         */
+        CLOSE_POLICY_VIOLATION,
+
+        /**
+         * The connection is closed with 1013, try again later. The code was registered after
+         * RFC 6455, older servers may treat it as protocol error.
+         */
+        CLOSE_TRY_AGAIN_LATER
+    }
+
+    private static final int POLICY_VIOLATION = 1008;
+    private static final int TRY_AGAIN_LATER = 1013;
+
+    private final SimpleWebSocketClient client;
+    private final WebSocketHandler delegate;
+    private final Policy policy;
+    private final Executor executor;
+    private final int capacity;
+
+    private final Queue<Object> messages;
+    // close and error events, which are delivered after the messages
+    private final Queue<HandlerEvent> events = new ConcurrentLinkedQueue<HandlerEvent>();
+    private final AtomicLong shed = new AtomicLong();
+
+    private volatile int sampleRate = 10;
+
+    // the following fields are only accessed by the receiving thread
+    private long sampled;
+    private boolean closing;
+
+    private final SerialDrain drain = new SerialDrain() {
+        @Override
+        protected void drainOnce() {
+            Object next;
+            while ((next = messages.poll()) != null) {
+                try {
+                    deliver(next);
+                } catch (RuntimeException e) {
+                    delegate.onError(e);
+                }
+            }
+            HandlerEvent event;
+            while ((event = events.poll()) != null) {
+                event.deliverTo(delegate);
+            }
+        }
+    };
+
+    /**
+     * @param client the client to protect, the handler becomes its handler
+     * @param delegate the handler for the queued messages and events
+     * @param capacity the maximum number of queued messages
+     * @param policy what happens to messages while the queue is full
+     * @param executor runs the delegate
+     */
+    public LoadSheddingWebSocketHandler(final SimpleWebSocketClient client, final WebSocketHandler delegate,
+                                        final int capacity, final Policy policy, final Executor executor) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.client = Objects.requireNonNull(client, "no client given");
+        this.delegate = Objects.requireNonNull(delegate, "no handler given");
+        this.policy = Objects.requireNonNull(policy, "no policy given");
+        this.executor = Objects.requireNonNull(executor, "no executor given");
+        this.capacity = capacity;
+        this.messages = new ArrayBlockingQueue<Object>(capacity);
+        client.setWebSocketHandler(this);
+    }
+
+    /**
+     * Only every n-th message is queued, while the queue is half full, for {@link Policy#SAMPLE}.
+     * Defaults to 10.
+     */
+    public void setSampleRate(final int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sample rate must be positive");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Number of messages, which were dropped.
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+
+    /**
+     * Number of messages, which are waiting for the handler.
+     */
+    public int getQueueSize() {
+        return messages.size();
+    }
+
+    @Override
+    public void onOpen() {
+        closing = false;
+        delegate.onOpen();
+    }
+
+    @Override
+    public void onClose(final int closeCode, final String reason) {
+        events.offer(HandlerEvent.closed(closeCode, reason));
+        schedule();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        events.offer(HandlerEvent.failed(throwable));
+        schedule();
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        if (admit()) {
+            offer(message);
+        }
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        if (admit()) {
+            offer(SerialDrain.copy(message));
+        }
+    }
+
+    /**
+     * Sampling and closing happen before the binary message is copied.
+     */
+    private boolean admit() {
+        if (closing) {
+            shed.incrementAndGet();
+            return false;
+        }
+        switch (policy) {
+            case SAMPLE:
+                if (messages.size() >= (capacity + 1) / 2 && sampled++ % sampleRate != 0) {
+                    shed.incrementAndGet();
+                    return false;
+                }
+                return true;
+            case CLOSE_POLICY_VIOLATION:
+            case CLOSE_TRY_AGAIN_LATER:
+                if (messages.size() >= capacity) {
+                    closing = true;
+                    shed.incrementAndGet();
+                    client.close(policy == Policy.CLOSE_POLICY_VIOLATION ? POLICY_VIOLATION : TRY_AGAIN_LATER,
+                            "inbound queue overflow");
+                    return false;
+                }
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    private void offer(final Object message) {
+        if (policy == Policy.DROP_OLDEST) {
+            // messages are only offered by the receiving thread, so the loop ends once the drain
+            // or this thread took a message
+            while (!messages.offer(message)) {
+                if (messages.poll() != null) {
+                    shed.incrementAndGet();
+                }
+            }
+        } else if (!messages.offer(message)) {
+            shed.incrementAndGet();
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (drain.enter()) {
+            executor.execute(drain);
+        }
+    }
+
+    private void deliver(final Object message) {
+        if (message instanceof String) {
+            delegate.onMessage((String) message);
+        } else {
+            delegate.onMessage((ByteBuffer) message);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes inbound messages, e.g. parses JSON or decompresses them, see {@link ParallelDecodingWebSocketHandler}.
+ * The decoder is invoked by several threads at once.
+ *
+ * @param <T> the type of the decoded messages
+ */
+public interface MessageDecoder<T> {
+
+    /**
+     * Decodes the given text message.
+     *
+     * @param message the text message.
+     * @throws Exception passed to {@link DecodedMessageHandler#onError(Throwable)}
+     */
+    T decode(String message) throws Exception;
+
+    /**
+     * Decodes the given binary message, the buffer is owned by the decoder.
+     *
+     * @param message the binary message.
+     * @throws Exception passed to {@link DecodedMessageHandler#onError(Throwable)}
+     */
+    T decode(ByteBuffer message) throws Exception;
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the payload of all messages of a {@link SimpleWebSocketClient}, e.g. to record the
+ * traffic of a session, see {@link net.wessendorf.websocket.recorder.SessionRecorder}.
+ *
+ * The recorder is called on the send and receive paths, before the payload is handed to the
+ * container or the {@link WebSocketHandler}. Implementations must not modify the buffers,
+ * nor keep references to them.
+ */
+public interface MessageRecorder {
+
+    void onSend(String payload);
+
+    void onSend(ByteBuffer payload);
+
+    void onReceive(String payload);
+
+    void onReceive(ByteBuffer payload);
+}
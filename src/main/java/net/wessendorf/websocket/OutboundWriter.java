@@ -0,0 +1,271 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serializes all outbound frames of a session and writes them with the blocking remote endpoint,
+ * on a pooled thread. Messages larger than the fragment size are split into partial frames, and
+ * pending control frames (pings) are written between the fragments, so that a large transfer does
+ * not delay the heartbeat.
+ *
+ * RFC 6455 does not allow to interleave the fragments of different data messages, so other messages
+ * are written once the fragmented message is complete.
+ *
+ * Messages are queued per {@link SendPriority}: pings and urgent messages are written with strict
+ * priority, the other lanes share the connection by weighted round robin, so bulk traffic can not
+ * starve latency critical messages, and vice versa.
+ */
+class OutboundWriter implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboundWriter.class.getName());
+
+    private static final SendResult OK = new SendResult();
+
+    // weights used, if none are given: a plain FIFO
+    private static final int[] EQUAL_WEIGHTS = {1, 1, 1};
+
+    private final Executor executor;
+    private final int fragmentSize;
+    private final int[] weights;
+    private final SendHandler controlCompletion;
+
+    private final Queue<ByteBuffer> pings = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Queue<Message> urgent = new ConcurrentLinkedQueue<Message>();
+    private final Queue<Message>[] lanes;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // round robin state, only touched by the draining thread
+    private int lane;
+    private int credit;
+
+    private volatile Session session;
+
+    /**
+     * @param executor runs the (blocking) writes
+     * @param fragmentSize in bytes for binary and in characters for text messages
+     * @param weights of the HIGH, NORMAL and LOW lanes, or <code>null</code> to send all messages in order
+     * @param controlCompletion notified about the result of writing a control frame
+     */
+    OutboundWriter(final Executor executor, final int fragmentSize, final int[] weights, final SendHandler controlCompletion) {
+        this.executor = executor;
+        this.fragmentSize = fragmentSize;
+        this.weights = (weights != null) ? weights.clone() : EQUAL_WEIGHTS;
+        this.controlCompletion = controlCompletion;
+
+        lanes = newLanes((weights != null) ? 3 : 1);
+        credit = this.weights[0];
+    }
+
+    /**
+     * Arrays of a generic type can not be created, so the array is created with a wildcard.
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<Message>[] newLanes(final int count) {
+        final Queue<Message>[] lanes = (Queue<Message>[]) new Queue<?>[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<Message>();
+        }
+        return lanes;
+    }
+
+    void attach(final Session session) {
+        this.session = session;
+    }
+
+    void sendText(final String payload, final SendPriority priority, final SendHandler completion) {
+        queueOf(priority).offer(new Message(payload, null, completion));
+        schedule();
+    }
+
+    void sendBinary(final ByteBuffer payload, final SendPriority priority, final SendHandler completion) {
+        queueOf(priority).offer(new Message(null, payload, completion));
+        schedule();
+    }
+
+    private Queue<Message> queueOf(final SendPriority priority) {
+        if (lanes.length == 1) {
+            return lanes[0];
+        }
+        switch (priority) {
+            case URGENT:
+                return urgent;
+            case HIGH:
+                return lanes[0];
+            case LOW:
+                return lanes[2];
+            default:
+                return lanes[1];
+        }
+    }
+
+    void sendPing(final ByteBuffer applicationData) {
+        pings.offer(applicationData);
+        schedule();
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int missed = 1;
+        do {
+            drain(session.getBasicRemote());
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void drain(final RemoteEndpoint.Basic remote) {
+        for (;;) {
+            writePings(remote);
+
+            final Message message = next();
+            if (message == null) {
+                return;
+            }
+
+            SendResult result = OK;
+            try {
+                if (message.text != null) {
+                    writeText(remote, message.text);
+                } else {
+                    writeBinary(remote, message.binary);
+                }
+            } catch (IOException | RuntimeException e) {
+                result = new SendResult(e);
+            }
+            notify(message.completion, result);
+        }
+    }
+
+    /**
+     * Picks the next message: urgent ones first, then the lanes get to send as many messages
+     * as their weight, before it is the next lane's turn.
+     */
+    private Message next() {
+        final Message urgentMessage = urgent.poll();
+        if (urgentMessage != null) {
+            return urgentMessage;
+        }
+
+        // the current lane, with the credit left, plus one full round
+        for (int i = 0; i <= lanes.length; i++) {
+            if (credit > 0) {
+                final Message message = lanes[lane].poll();
+                if (message != null) {
+                    credit--;
+                    return message;
+                }
+            }
+            lane = (lane + 1) % lanes.length;
+            credit = weights[lane];
+        }
+        return null;
+    }
+
+    private void writeText(final RemoteEndpoint.Basic remote, final String payload) throws IOException {
+        if (fragmentSize <= 0 || payload.length() <= fragmentSize) {
+            remote.sendText(payload);
+            return;
+        }
+
+        int start = 0;
+        while (start < payload.length()) {
+            int end = Math.min(start + fragmentSize, payload.length());
+            // never split a surrogate pair, a fragment holds at least one code point
+            if (end < payload.length() && Character.isHighSurrogate(payload.charAt(end - 1))) {
+                end = (end - 1 > start) ? end - 1 : start + 2;
+            }
+            final boolean last = end == payload.length();
+            remote.sendText(payload.substring(start, end), last);
+            start = end;
+            if (!last) {
+                writePings(remote);
+            }
+        }
+    }
+
+    private void writeBinary(final RemoteEndpoint.Basic remote, final ByteBuffer payload) throws IOException {
+        if (fragmentSize <= 0 || payload.remaining() <= fragmentSize) {
+            remote.sendBinary(payload);
+            return;
+        }
+
+        final int end = payload.limit();
+        while (payload.position() < end) {
+            final ByteBuffer fragment = payload.duplicate();
+            fragment.limit(Math.min(payload.position() + fragmentSize, end));
+            payload.position(fragment.limit());
+
+            final boolean last = payload.position() == end;
+            remote.sendBinary(fragment, last);
+            if (!last) {
+                writePings(remote);
+            }
+        }
+    }
+
+    private void writePings(final RemoteEndpoint.Basic remote) {
+        ByteBuffer ping;
+        while ((ping = pings.poll()) != null) {
+            try {
+                remote.sendPing(ping);
+                notify(controlCompletion, OK);
+            } catch (IOException | RuntimeException e) {
+                notify(controlCompletion, new SendResult(e));
+            }
+        }
+    }
+
+    /**
+     * A failing callback must not end the drain, the pending messages would never be written.
+     */
+    private static void notify(final SendHandler completion, final SendResult result) {
+        try {
+            completion.onResult(result);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "send completion failed", e);
+        }
+    }
+
+    private static final class Message {
+        private final String text;
+        private final ByteBuffer binary;
+        private final SendHandler completion;
+
+        private Message(final String text, final ByteBuffer binary, final SendHandler completion) {
+            this.text = text;
+            this.binary = binary;
+            this.completion = completion;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decodes inbound messages in parallel on a {@link ForkJoinPool}, and passes them to the
+ * {@link DecodedMessageHandler} in the order of their arrival. This spreads CPU heavy decoding of a
+ * single connection over several cores.
+ *
+ * <pre>
+ * client.setWebSocketHandler(new ParallelDecodingWebSocketHandler&lt;Quote&gt;(decoder, handler, pool, 64));
+ * </pre>
+ *
+ * Messages and events take a slot of a ring, in the order they arrive, and are delivered once all
+ * slots before them are done. The ring bounds the messages in flight: once it is full, the receiving
+ * thread waits for the oldest message, which slows down the server by TCP flow control. Whichever
+ * thread completes the oldest slot delivers it, and the slots after it which are done, so the
+ * handler is never invoked concurrently. The decoder gets a copy of a binary message, as it runs
+ * after the container's callback returned.
+ *
+ * @param <T> the type of the decoded messages
+ */
+public class ParallelDecodingWebSocketHandler<T> implements WebSocketHandler {
+
+    // marks a message decoded to null
+    private static final Object NULL = new Object();
+
+    private static final int MAX_IN_FLIGHT = 1 << 30;
+
+    private final MessageDecoder<T> decoder;
+    private final DecodedMessageHandler<T> handler;
+    private final ForkJoinPool pool;
+
+    private final AtomicReferenceArray<Object> ring;
+    private final int mask;
+    private final Semaphore free;
+    private final AtomicLong next = new AtomicLong();
+    // only accessed by the drain
+    private long delivered;
+
+    private final SerialDrain drain = new SerialDrain() {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void drainOnce() {
+            Object next;
+            while ((next = ring.get((int) delivered & mask)) != null) {
+                ring.set((int) delivered & mask, null);
+                delivered++;
+                free.release();
+                try {
+                    if (next == NULL) {
+                        handler.onMessage(null);
+                    } else if (next instanceof HandlerEvent) {
+                        ((HandlerEvent) next).deliverTo(handler);
+                    } else {
+                        handler.onMessage((T) next);
+                    }
+                } catch (RuntimeException e) {
+                    handler.onError(e);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param decoder decodes the messages, invoked by several threads at once
+     * @param handler receives the decoded messages and the events
+     * @param pool runs the decoder
+     * @param maxInFlight the maximum number of messages which are decoded or wait for delivery, rounded up to
+     *                    a power of two, at most 2<sup>30</sup>
+     */
+    public ParallelDecodingWebSocketHandler(final MessageDecoder<T> decoder, final DecodedMessageHandler<T> handler,
+                                            final ForkJoinPool pool, final int maxInFlight) {
+        if (maxInFlight <= 0 || maxInFlight > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("max in flight must be between 1 and " + MAX_IN_FLIGHT);
+        }
+        this.decoder = Objects.requireNonNull(decoder, "no decoder given");
+        this.handler = Objects.requireNonNull(handler, "no handler given");
+        this.pool = Objects.requireNonNull(pool, "no pool given");
+        this.ring = new AtomicReferenceArray<Object>((maxInFlight == 1) ? 1 : Integer.highestOneBit(maxInFlight - 1) << 1);
+        this.mask = ring.length() - 1;
+        this.free = new Semaphore(ring.length());
+    }
+
+    @Override
+    public void onOpen() {
+        complete(claim(), HandlerEvent.OPENED);
+    }
+
+    @Override
+    public void onClose(final int closeCode, final String reason) {
+        complete(claim(), HandlerEvent.closed(closeCode, reason));
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        complete(claim(), HandlerEvent.failed(throwable));
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        final long slot = claim();
+        decode(slot, new Runnable() {
+            @Override
+            public void run() {
+                Object result;
+                try {
+                    result = decoder.decode(message);
+                } catch (Exception e) {
+                    result = HandlerEvent.failed(e);
+                }
+                complete(slot, result);
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        final ByteBuffer copy = SerialDrain.copy(message);
+        final long slot = claim();
+        decode(slot, new Runnable() {
+            @Override
+            public void run() {
+                Object result;
+                try {
+                    result = decoder.decode(copy);
+                } catch (Exception e) {
+                    result = HandlerEvent.failed(e);
+                }
+                complete(slot, result);
+            }
+        });
+    }
+
+    /**
+     * Runs the decoding on the pool. A rejected task completes its slot with the failure, otherwise the
+     * drain would stop at the slot for good.
+     */
+    private void decode(final long slot, final Runnable task) {
+        try {
+            pool.execute(task);
+        } catch (RuntimeException e) {
+            complete(slot, HandlerEvent.failed(e));
+        }
+    }
+
+    /**
+     * Takes the next slot of the ring, waiting while it is full.
+     */
+    private long claim() {
+        free.acquireUninterruptibly();
+        return next.getAndIncrement();
+    }
+
+    private void complete(final long slot, final Object result) {
+        ring.set((int) slot & mask, (result != null) ? result : NULL);
+        if (drain.enter()) {
+            drain.run();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket for outbound messages, limiting the message rate and the byte rate, see
+ * {@link SimpleWebSocketClient#setRateLimiters(RateLimiter...)}. An instance which is given
+ * to several clients limits them as a group.
+ *
+ * The buckets are implemented as generic cell rate algorithm: each bucket is a single timestamp,
+ * the theoretical arrival time of the next message, which is advanced by compare and set. This
+ * keeps the send path free of locks. Payload sizes are in bytes for binary and in characters
+ * for text messages.
+ */
+public final class RateLimiter {
+
+    /**
+     * What happens to a send which exceeds the limit.
+     */
+    public enum Policy {
+
+        /**
+         * The sending thread is parked, until the send conforms to the limit.
+         */
+        DELAY,
+
+        /**
+         * The send fails with a {@link java.util.concurrent.RejectedExecutionException}.
+         */
+        REJECT
+    }
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final Policy policy;
+
+    private final long messagesPerSecond;
+    private final long messageLimit;
+    private final AtomicLong messageTat;
+
+    private final long bytesPerSecond;
+    private final long byteLimit;
+    private final AtomicLong byteTat;
+
+    private final AtomicLong throttledNanos = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param messagesPerSecond sustained message rate, <code>0</code> for no limit
+     * @param messageBurst number of messages which can be sent at once, after being idle
+     * @param bytesPerSecond sustained payload rate, <code>0</code> for no limit
+     * @param byteBurst payload which can be sent at once, after being idle. With {@link Policy#REJECT}
+     *                  larger messages are always rejected.
+     * @param policy what happens to sends exceeding the limit
+     */
+    public RateLimiter(final long messagesPerSecond, final long messageBurst, final long bytesPerSecond, final long byteBurst, final Policy policy) {
+        if (messagesPerSecond < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("rates must not be negative");
+        }
+        if ((messagesPerSecond > 0 && messageBurst < 1) || (bytesPerSecond > 0 && byteBurst < 1)) {
+            throw new IllegalArgumentException("burst sizes must be positive");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        this.policy = policy;
+
+        final long now = System.nanoTime();
+        this.messagesPerSecond = messagesPerSecond;
+        this.messageLimit = (messagesPerSecond > 0) ? cost(messageBurst, messagesPerSecond) : 0;
+        this.messageTat = new AtomicLong(now);
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteLimit = (bytesPerSecond > 0) ? cost(byteBurst, bytesPerSecond) : 0;
+        this.byteTat = new AtomicLong(now);
+    }
+
+    /**
+     * Limits the message rate only.
+     */
+    public static RateLimiter messages(final long messagesPerSecond, final long burst, final Policy policy) {
+        return new RateLimiter(messagesPerSecond, burst, 0, 0, policy);
+    }
+
+    /**
+     * Limits the byte rate only.
+     */
+    public static RateLimiter bytes(final long bytesPerSecond, final long burst, final Policy policy) {
+        return new RateLimiter(0, 0, bytesPerSecond, burst, policy);
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Total time, the sends had to be delayed.
+     */
+    public long getThrottledNanos() {
+        return throttledNanos.get();
+    }
+
+    /**
+     * Number of rejected sends.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Reserves the capacity for a message.
+     *
+     * @return the nanoseconds to wait before sending, or <code>-1</code> if the message is rejected
+     */
+    long reserve(final int payloadSize, final long now) {
+        long messageWait = 0;
+        if (messagesPerSecond > 0) {
+            messageWait = reserve(messageTat, cost(1, messagesPerSecond), messageLimit, now);
+            if (messageWait < 0) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+        }
+        if (bytesPerSecond > 0) {
+            final long byteWait = reserve(byteTat, cost(payloadSize, bytesPerSecond), byteLimit, now);
+            if (byteWait < 0) {
+                if (messagesPerSecond > 0) {
+                    messageTat.addAndGet(-cost(1, messagesPerSecond));
+                }
+                rejected.incrementAndGet();
+                return -1;
+            }
+            messageWait = Math.max(messageWait, byteWait);
+        }
+        if (messageWait > 0) {
+            throttledNanos.addAndGet(messageWait);
+        }
+        return messageWait;
+    }
+
+    /**
+     * Gives back the capacity of a message, which was not sent since another limiter rejected it.
+     */
+    void release(final int payloadSize) {
+        if (messagesPerSecond > 0) {
+            messageTat.addAndGet(-cost(1, messagesPerSecond));
+        }
+        if (bytesPerSecond > 0) {
+            byteTat.addAndGet(-cost(payloadSize, bytesPerSecond));
+        }
+    }
+
+    private long reserve(final AtomicLong tat, final long cost, final long limit, final long now) {
+        for (;;) {
+            final long current = tat.get();
+            final long next = ((current - now > 0) ? current : now) + cost;
+            final long wait = next - now - limit;
+            if (wait > 0 && policy == Policy.REJECT) {
+                return -1;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return (wait > 0) ? wait : 0;
+            }
+        }
+    }
+
+    /**
+     * Time slot of the given amount at the given rate, rounded up.
+     */
+    private static long cost(final long amount, final long perSecond) {
+        return (amount * NANOS_PER_SECOND + perSecond - 1) / perSecond;
+    }
+}
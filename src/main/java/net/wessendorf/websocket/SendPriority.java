@@ -0,0 +1,42 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * Priority of an outbound message, see {@link SimpleWebSocketClient#setPriorityWeights(int, int, int)}.
+ */
+public enum SendPriority {
+
+    /**
+     * Sent before all other messages, e.g. for order acknowledgements. Only pings take precedence.
+     */
+    URGENT,
+
+    /**
+     * Gets the largest weighted share of the connection.
+     */
+    HIGH,
+
+    /**
+     * The priority of messages sent without explicit priority.
+     */
+    NORMAL,
+
+    /**
+     * Gets the smallest weighted share of the connection, e.g. for bulk telemetry.
+     */
+    LOW;
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Extracts the sequence number the server assigned to an inbound message, for resuming a
+ * session after a reconnect.
+ *
+ * @see SessionResumption
+ */
+public interface SequenceExtractor {
+
+    /**
+     * Returns the sequence number of the given text message, or a negative value if the
+     * message is not sequenced.
+     *
+     * @param message the text message.
+     */
+    long sequenceOf(String message);
+
+    /**
+     * Returns the sequence number of the given binary message, or a negative value if the
+     * message is not sequenced. The position of the buffer must not be changed.
+     *
+     * @param message the binary message.
+     */
+    long sequenceOf(ByteBuffer message);
+}
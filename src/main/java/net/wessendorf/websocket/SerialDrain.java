@@ -0,0 +1,72 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs {@link #drainOnce()} by one thread at a time: a thread which {@link #enter() enters} an idle
+ * drain has to {@link #run() run} it, other threads only mark that there is more to drain, and the
+ * running thread drains again before it leaves.
+ *
+ * A failing {@link #drainOnce()} is logged and the drain goes on with the remaining items, otherwise
+ * the drain would stay entered and nothing would be delivered anymore.
+ */
+abstract class SerialDrain implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(SerialDrain.class.getName());
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * @return true if the drain was idle, and the caller has to run it or hand it to an executor
+     */
+    final boolean enter() {
+        return wip.getAndIncrement() == 0;
+    }
+
+    @Override
+    public final void run() {
+        int missed = 1;
+        do {
+            try {
+                drainOnce();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "handler failed", e);
+                continue;
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Delivers everything which is pending at the moment.
+     */
+    protected abstract void drainOnce();
+
+    /**
+     * A copy of the remaining bytes, for messages which are delivered after the container's
+     * callback returned and its buffer may have been reused.
+     */
+    static ByteBuffer copy(final ByteBuffer message) {
+        final ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resumes a session after a reconnect, see {@link SimpleWebSocketClient#setResumption(SessionResumption)}:
+ * the highest sequence number processed so far is sent with the opening handshake, as header or
+ * query parameter, so the server only needs to send the messages after it.
+ *
+ * Messages which the server replays are dropped, by a sliding window over the last
+ * {@link #WINDOW} sequence numbers: a bitmap of processed messages, shifted as higher numbers
+ * arrive. Messages older than the window are dropped as well. One instance serves a single client,
+ * it keeps its state across the reconnects.
+ */
+public final class SessionResumption {
+
+    /**
+     * Number of sequence numbers covered by the duplicate detection.
+     */
+    public static final int WINDOW = 1024;
+
+    private static final int MASK = WINDOW - 1;
+
+    private final SequenceExtractor extractor;
+    private final String name;
+    private final boolean header;
+
+    // the window is only accessed by the receiving thread
+    private final long[] window = new long[WINDOW / 64];
+    private long highest = -1;
+
+    private volatile long lastSequence = -1;
+    private volatile long duplicates;
+
+    private SessionResumption(final String name, final boolean header, final SequenceExtractor extractor) {
+        this.name = Objects.requireNonNull(name, "no name given");
+        this.header = header;
+        this.extractor = Objects.requireNonNull(extractor, "no sequence extractor given");
+    }
+
+    /**
+     * Sends the last sequence number in the given header of the upgrade request.
+     */
+    public static SessionResumption header(final String name, final SequenceExtractor extractor) {
+        return new SessionResumption(name, true, extractor);
+    }
+
+    /**
+     * Sends the last sequence number in the given query parameter of the WebSocket URI.
+     */
+    public static SessionResumption queryParameter(final String name, final SequenceExtractor extractor) {
+        return new SessionResumption(name, false, extractor);
+    }
+
+    /**
+     * The highest sequence number, which was passed to the handler.
+     * @return the sequence number, or <code>-1</code> if no sequenced message was processed
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Number of replayed messages, which were dropped.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    long sequenceOf(final String message) {
+        return extractor.sequenceOf(message);
+    }
+
+    long sequenceOf(final ByteBuffer message) {
+        return extractor.sequenceOf(message);
+    }
+
+    /**
+     * The headers of the upgrade request, with the resume header added if needed.
+     */
+    Map<String, List<String>> resumeHeaders(final Map<String, List<String>> headers) {
+        final long last = lastSequence;
+        if (!header || last < 0) {
+            return headers;
+        }
+        final Map<String, List<String>> resumed = new LinkedHashMap<String, List<String>>(headers);
+        resumed.put(name, Collections.singletonList(Long.toString(last)));
+        return resumed;
+    }
+
+    /**
+     * The URI to connect to, with the resume parameter added if needed.
+     */
+    URI resumeURI(final URI uri) throws URISyntaxException {
+        final long last = lastSequence;
+        if (header || last < 0) {
+            return uri;
+        }
+        final String parameter = name + '=' + last;
+        final String query = (uri.getRawQuery() == null) ? parameter : uri.getRawQuery() + '&' + parameter;
+        return new URI(uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath() + '?' + query);
+    }
+
+    /**
+     * Marks the sequence number as seen, messages without sequence number are always accepted.
+     * @return <code>false</code> if it was seen before, or is older than the window
+     */
+    boolean accept(final long sequence) {
+        if (sequence < 0) {
+            return true;
+        }
+        if (sequence > highest) {
+            if (sequence - highest >= WINDOW) {
+                for (int i = 0; i < window.length; i++) {
+                    window[i] = 0;
+                }
+            } else {
+                // clears the bits of the numbers which were skipped, a word at a time where possible
+                long next = highest + 1;
+                while (next < sequence) {
+                    if ((next & 63) == 0 && sequence - next >= 64) {
+                        window[(int) (next & MASK) >>> 6] = 0;
+                        next += 64;
+                    } else {
+                        window[(int) (next & MASK) >>> 6] &= ~(1L << next);
+                        next++;
+                    }
+                }
+            }
+            highest = sequence;
+        } else if (highest - sequence >= WINDOW) {
+            duplicates++;
+            return false;
+        } else if ((window[(int) (sequence & MASK) >>> 6] & (1L << sequence)) != 0) {
+            duplicates++;
+            return false;
+        }
+        window[(int) (sequence & MASK) >>> 6] |= 1L << sequence;
+        return true;
+    }
+
+    /**
+     * Invoked after the handler processed the message.
+     */
+    void processed(final long sequence) {
+        if (sequence > lastSequence) {
+            lastSequence = sequence;
+        }
+    }
+}
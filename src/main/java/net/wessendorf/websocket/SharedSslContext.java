@@ -0,0 +1,207 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link SSLContext} for <code>wss</code> connections, shared by several clients, see
+ * {@link SimpleWebSocketClient#setSslContext(SharedSslContext)}.
+ *
+ * The JSSE client session cache lives in the context and is keyed by host and port, so
+ * reconnects of any client sharing the context resume the TLS session with an abbreviated
+ * handshake instead of a full one, with TLS 1.2 session ids as well as TLS 1.3 tickets.
+ * The resumption hit rate is taken from the handshakes themselves: only a full handshake
+ * verifies the certificate of the server, so the context counts the verifications of its
+ * trust managers, and every other completed handshake was resumed.
+ */
+public final class SharedSslContext {
+
+    private final SSLContext sslContext;
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong verified = new AtomicLong();
+
+    /**
+     * @param keyManagers the client certificates, or <code>null</code>
+     * @param trustManagers verify the server certificates, or <code>null</code> for the default ones
+     */
+    public SharedSslContext(final KeyManager[] keyManagers, final TrustManager[] trustManagers) throws GeneralSecurityException {
+        this.sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers, counting((trustManagers != null) ? trustManagers : defaultTrustManagers()), null);
+    }
+
+    /**
+     * @param keyManagers the client certificates, or <code>null</code>
+     * @param trustManagers verify the server certificates, or <code>null</code> for the default ones
+     * @param sessionCacheSize number of cached sessions, <code>0</code> for no limit
+     * @param sessionTimeoutSeconds lifetime of a cached session, <code>0</code> for no limit
+     */
+    public SharedSslContext(final KeyManager[] keyManagers, final TrustManager[] trustManagers,
+                            final int sessionCacheSize, final int sessionTimeoutSeconds) throws GeneralSecurityException {
+        this(keyManagers, trustManagers);
+        final SSLSessionContext sessions = sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * Trusts the JVM's default certificates.
+     */
+    public static SharedSslContext createDefault() throws GeneralSecurityException {
+        return new SharedSslContext(null, null);
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Number of TLS handshakes of connections using this context.
+     */
+    public long getHandshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * Number of those handshakes, which resumed a cached session. A full handshake which is still
+     * running when this is called may be missing from the count.
+     */
+    public long getResumedHandshakes() {
+        return Math.max(handshakes.get() - verified.get(), 0);
+    }
+
+    /**
+     * Share of resumed handshakes, between 0 and 1.
+     */
+    public double getResumptionRate() {
+        final long total = handshakes.get();
+        return (total > 0) ? (double) getResumedHandshakes() / total : 0;
+    }
+
+    /**
+     * Counts the completed handshake of a connection.
+     */
+    void handshakeCompleted() {
+        handshakes.incrementAndGet();
+    }
+
+    private static TrustManager[] defaultTrustManagers() throws GeneralSecurityException {
+        final TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init((KeyStore) null);
+        return factory.getTrustManagers();
+    }
+
+    /**
+     * Wraps the X.509 trust managers. Plain ones stay plain, so JSSE still adds the host name
+     * checks of the extended ones.
+     */
+    private TrustManager[] counting(final TrustManager[] trustManagers) {
+        final TrustManager[] counting = new TrustManager[trustManagers.length];
+        for (int i = 0; i < trustManagers.length; i++) {
+            if (trustManagers[i] instanceof X509ExtendedTrustManager) {
+                counting[i] = new CountingExtendedTrustManager((X509ExtendedTrustManager) trustManagers[i]);
+            } else if (trustManagers[i] instanceof X509TrustManager) {
+                counting[i] = new CountingTrustManager((X509TrustManager) trustManagers[i]);
+            } else {
+                counting[i] = trustManagers[i];
+            }
+        }
+        return counting;
+    }
+
+    private final class CountingTrustManager implements X509TrustManager {
+        private final X509TrustManager delegate;
+
+        private CountingTrustManager(final X509TrustManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+            delegate.checkServerTrusted(chain, authType);
+            verified.incrementAndGet();
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+
+    private final class CountingExtendedTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager delegate;
+
+        private CountingExtendedTrustManager(final X509ExtendedTrustManager delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+            delegate.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType) throws CertificateException {
+            delegate.checkServerTrusted(chain, authType);
+            verified.incrementAndGet();
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType, final Socket socket) throws CertificateException {
+            delegate.checkServerTrusted(chain, authType, socket);
+            verified.incrementAndGet();
+        }
+
+        @Override
+        public void checkServerTrusted(final X509Certificate[] chain, final String authType, final SSLEngine engine) throws CertificateException {
+            delegate.checkServerTrusted(chain, authType, engine);
+            verified.incrementAndGet();
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return delegate.getAcceptedIssuers();
+        }
+    }
+}
@@ -21,13 +21,29 @@ import javax.websocket.ContainerProvider;
 import javax.websocket.Endpoint;
 import javax.websocket.EndpointConfig;
 import javax.websocket.MessageHandler;
+import javax.websocket.PongMessage;
 import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.WebSocketContainer;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A simplified WebSocket client, based on the JSR 356 client API.
@@ -37,12 +53,77 @@ import java.nio.ByteBuffer;
  */
 public class SimpleWebSocketClient {
 
+    // user property of the Undertow container, carrying the SSLContext for wss connections
+    private static final String UNDERTOW_SSL_CONTEXT = "io.undertow.websocket.SSL_CONTEXT";
+
+    private static final RateLimiter[] NO_LIMITS = new RateLimiter[0];
+
+    private static final CloseReason NORMAL_CLOSURE = new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null);
+
+    // handler of clients which did not set one, it is stateless
+    private static final WebSocketHandler NO_HANDLER = new WebSocketHandlerAdapter();
+
+    // config of high density clients without custom handshake
+    private static final ClientEndpointConfig PLAIN_CONFIG = ClientEndpointConfig.Builder.create().build();
+
+    // container of the high density clients, which did not pick a container
+    private static volatile WebSocketContainer sharedContainer;
+
     private final URI websocketURI;
-    private final WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+    // taken from the ContainerProvider when created, high density clients resolve the shared one at the first connect
+    private WebSocketContainer container;
+    private boolean containerPicked;
 
     private ReadyState readyState = ReadyState.CLOSED;
     private Session webSocketSession;
-    private WebSocketHandler webSocketHandler;
+    private volatile WebSocketHandler webSocketHandler;
+    private volatile InterceptorPipeline pipeline;
+    private WebSocketTracer tracer;
+    private MessageRecorder recorder;
+    private SharedSslContext sslContext;
+    private SessionResumption resumption;
+    private long maxIdleTimeout = -1;
+    private int maxTextMessageBufferSize;
+    private int maxBinaryMessageBufferSize;
+    private List<String> subprotocols = Collections.emptyList();
+    private Map<String, List<String>> headers = Collections.emptyMap();
+    private long openedAt;
+    private HandshakeTimer handshakeTimer;
+    private volatile HandshakeTimings handshakeTimings;
+    private boolean connectedBefore;
+    private int closeCode = CloseReason.CloseCodes.CLOSED_ABNORMALLY.getCode();
+    private volatile GracefulClose gracefulClose;
+    private int fragmentSize;
+    private int[] priorityWeights;
+    private volatile RateLimiter[] rateLimiters = NO_LIMITS;
+    private OutboundWriter outbound;
+    private boolean highDensity;
+    private volatile boolean pongHandlerAdded;
+
+    private final ClientStatistics statistics;
+    private final SendHandler sendCompletion = new SendHandler() {
+        @Override
+        public void onResult(final SendResult result) {
+            statistics.sendCompleted();
+            if (!result.isOK()) {
+                statistics.error();
+            }
+
+            final GracefulClose gracefulClose = SimpleWebSocketClient.this.gracefulClose;
+            if (gracefulClose != null && statistics.getPendingSends() == 0) {
+                gracefulClose.drained();
+            }
+        }
+    };
+    private final SendHandler controlCompletion = new SendHandler() {
+        @Override
+        public void onResult(final SendResult result) {
+            if (!result.isOK()) {
+                statistics.error();
+                webSocketHandler.onError(result.getException());
+            }
+        }
+    };
 
     /**
      * The @{ReadyState} for the underlying connection
@@ -52,19 +133,214 @@ public class SimpleWebSocketClient {
     }
 
     /**
-     * Applying the handler class to react on the different WebSocket events.
+     * Applying the handler class to react on the different WebSocket events. The handler may be
+     * changed while connected, messages already passed to the old handler are not redelivered.
      * @param webSocketHandler
      */
     public void setWebSocketHandler(final WebSocketHandler webSocketHandler) {
         this.webSocketHandler = webSocketHandler;
     }
 
+    /**
+     * Applying interceptors around the handler and the sends, ordered from the network to the handler.
+     * The interceptors may be changed while connected, the new pipeline is published atomically.
+     * Calling without arguments removes all interceptors.
+     */
+    public void setInterceptors(final WebSocketInterceptor... interceptors) {
+        this.pipeline = (interceptors.length == 0) ? null : new InterceptorPipeline(this, interceptors);
+    }
+
+    /**
+     * Applying a tracer, receiving profiling events for this client. By default no tracer is
+     * set and no timing information is collected.
+     * @param tracer the tracer, or <code>null</code> to disable tracing
+     */
+    public void setTracer(final WebSocketTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Applying a recorder, receiving the payload of all sent and received messages.
+     * @param recorder the recorder, or <code>null</code> to disable recording
+     */
+    public void setRecorder(final MessageRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Splits outbound messages which are larger than the given size into fragments, and sends
+     * pings between the fragments, so that large transfers do not delay the heartbeat. Sends are
+     * then written by a pooled thread. Needs to be applied before connecting.
+     * @param fragmentSize in bytes for binary and in characters for text messages, <code>0</code> (the default) disables fragmentation
+     */
+    public void setFragmentSize(final int fragmentSize) {
+        if (fragmentSize < 0) {
+            throw new IllegalArgumentException("fragment size must not be negative");
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * Applying the TLS context for <code>wss</code> connections. Sharing one context between clients
+     * allows reconnects to resume cached TLS sessions. Needs to be applied before connecting.
+     * @param sslContext the context, or <code>null</code> for the container's default
+     */
+    public void setSslContext(final SharedSslContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    /**
+     * Enables resuming the session on reconnects: the last processed sequence number is sent with
+     * the opening handshake, and messages replayed by the server are dropped. Needs to be applied
+     * before connecting.
+     * @param resumption the resumption, or <code>null</code> to disable resuming
+     */
+    public void setResumption(final SessionResumption resumption) {
+        this.resumption = resumption;
+    }
+
+    /**
+     * Enables the priority lanes for outbound messages: urgent messages are sent before all others,
+     * while the high, normal and low lanes share the connection by weighted round robin. Sends are
+     * then written by a pooled thread. Without weights, all messages are sent in order, regardless of
+     * their priority. Needs to be applied before connecting.
+     * @param high number of messages sent from the high lane per round
+     * @param normal number of messages sent from the normal lane per round
+     * @param low number of messages sent from the low lane per round
+     */
+    public void setPriorityWeights(final int high, final int normal, final int low) {
+        if (high < 1 || normal < 1 || low < 1) {
+            throw new IllegalArgumentException("weights must be positive");
+        }
+        this.priorityWeights = new int[] {high, normal, low};
+    }
+
+    /**
+     * Limits the outbound rate: each send has to conform to all given limiters. A limiter which is
+     * shared by several clients limits them as a group. Depending on the {@link RateLimiter.Policy}
+     * an excess send parks the calling thread, or fails with a {@link RejectedExecutionException}.
+     * Pings are not limited. Calling without arguments removes all limits.
+     */
+    public void setRateLimiters(final RateLimiter... limiters) {
+        this.rateLimiters = limiters.clone();
+    }
+
+    /**
+     * Closes the session, after it was idle for the given time. <code>0</code> disables the timeout,
+     * by default the container's timeout applies. Needs to be applied before connecting.
+     */
+    public void setMaxIdleTimeout(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must not be negative");
+        }
+        this.maxIdleTimeout = unit.toMillis(timeout);
+    }
+
+    /**
+     * Largest text message, in characters, that can be received. By default the container's limit
+     * applies. Needs to be applied before connecting.
+     */
+    public void setMaxTextMessageBufferSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.maxTextMessageBufferSize = size;
+    }
+
+    /**
+     * Largest binary message, in bytes, that can be received. By default the container's limit
+     * applies. Needs to be applied before connecting.
+     */
+    public void setMaxBinaryMessageBufferSize(final int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.maxBinaryMessageBufferSize = size;
+    }
+
+    /**
+     * Subprotocols offered to the server, in order of preference, see {@link #getSubprotocol()}.
+     * Needs to be applied before connecting.
+     */
+    public void setSubprotocols(final String... subprotocols) {
+        this.subprotocols = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(subprotocols)));
+    }
+
+    /**
+     * Headers added to the upgrade request. Needs to be applied before connecting.
+     * @param headers the values by header name
+     */
+    public void setHeaders(final Map<String, List<String>> headers) {
+        final Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            copy.put(header.getKey(), Collections.unmodifiableList(new ArrayList<String>(header.getValue())));
+        }
+        this.headers = Collections.unmodifiableMap(copy);
+    }
+
+    /**
+     * Uses a container with its own pool of I/O buffers of the given size, instead of the 1 KB
+     * heap buffers of the default container. Clients with the same settings share the container.
+     * Needs to be applied before connecting.
+     * @param bufferSize size of the pooled buffers, in bytes
+     * @param direct <code>true</code> for direct buffers, <code>false</code> for heap buffers
+     */
+    public void setContainerBuffers(final int bufferSize, final boolean direct) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.container = UndertowContainers.get(bufferSize, direct);
+        this.containerPicked = true;
+    }
+
+    /**
+     * Trades diagnostics for memory, for keeping large numbers of mostly idle connections:
+     * the client is not registered as MBean, its counters are still part of the aggregate and
+     * {@link #getStatistics()}. All clients share one container with its I/O buffers and threads,
+     * instead of taking one from the {@link ContainerProvider} each, unless they pick one by
+     * {@link #setContainerBuffers(int, boolean)}. Without custom headers, subprotocols or TLS context,
+     * all clients share one endpoint config and no handshake timings are taken. Needs to be applied
+     * before connecting, clients built by {@link Builder#highDensity()} never take a container of their own.
+     */
+    public void setHighDensity(final boolean highDensity) {
+        if (highDensity != this.highDensity && !containerPicked) {
+            container = highDensity ? null : ContainerProvider.getWebSocketContainer();
+        }
+        this.highDensity = highDensity;
+    }
+
+    /**
+     * The time spent for establishing the connection, available once it is open.
+     * @return the timings of the last connect, or <code>null</code> if never connected
+     */
+    public HandshakeTimings getHandshakeTimings() {
+        return handshakeTimings;
+    }
+
+    /**
+     * The traffic statistics of this client, which are also exposed via JMX while connected.
+     */
+    public WebSocketClientStatisticsMXBean getStatistics() {
+        return statistics;
+    }
+
 
     /**
      * Creates new WebSocket client for given address
      */
     public SimpleWebSocketClient(final URI websocketURI) throws URISyntaxException {
+        this(websocketURI, false);
+    }
+
+    /**
+     * Creates new WebSocket client for given address, a high density client does not take
+     * a container of its own.
+     */
+    SimpleWebSocketClient(final URI websocketURI, final boolean highDensity) throws URISyntaxException {
         this.websocketURI =  WebSocketUtil.applyDefaultPorts(websocketURI);
+        this.highDensity = highDensity;
+        this.container = highDensity ? null : ContainerProvider.getWebSocketContainer();
+        this.statistics = new ClientStatistics(this);
     }
 
 
@@ -82,32 +358,237 @@ public class SimpleWebSocketClient {
     public void connect() {
 
         readyState = ReadyState.CONNECTING;
+        gracefulClose = null;
+
+        final WebSocketTracer tracer = this.tracer;
+        final long start = System.nanoTime();
 
         try {
+            final SessionResumption resumption = this.resumption;
+            final Map<String, List<String>> headers = (resumption != null) ? resumption.resumeHeaders(this.headers) : this.headers;
+            final URI connectURI = (resumption != null) ? resumption.resumeURI(websocketURI) : websocketURI;
+
+            final ClientEndpointConfig config;
+            if (highDensity && headers.isEmpty() && subprotocols.isEmpty() && sslContext == null) {
+                config = PLAIN_CONFIG;
+            } else {
+                // resolved in advance to time it, the container then hits the JVM's cache
+                InetAddress.getByName(websocketURI.getHost());
+                handshakeTimer = new HandshakeTimer(start, System.nanoTime() - start, headers);
+
+                config = ClientEndpointConfig.Builder.create()
+                        .configurator(handshakeTimer)
+                        .preferredSubprotocols(subprotocols)
+                        .build();
+                if (sslContext != null) {
+                    config.getUserProperties().put(UNDERTOW_SSL_CONTEXT, sslContext.getSslContext());
+                }
+            }
+
             if (webSocketHandler == null) {
-                webSocketHandler = new WebSocketHandlerAdapter();
+                webSocketHandler = NO_HANDLER;
+            }
+            if (connectedBefore) {
+                statistics.reconnected();
+            }
+            Statistics.AGGREGATE.attach(statistics);
+            if (!highDensity) {
+                statistics.register();
             }
+            outbound = (fragmentSize > 0 || priorityWeights != null) ? new OutboundWriter(ClientScheduler.writers(), fragmentSize, priorityWeights, controlCompletion) : null;
+            pongHandlerAdded = false;
 
-            container.connectToServer(new SimpleWebSocketClientEndpoint(), ClientEndpointConfig.Builder.create().build(), websocketURI);
+            container().connectToServer(new SimpleWebSocketClientEndpoint(), config, connectURI);
+
+            connectedBefore = true;
+            if (tracer != null) {
+                tracer.onConnect(websocketURI, System.nanoTime() - start, true);
+            }
         } catch (Exception e) {
 
             readyState = ReadyState.CLOSED;
+            statistics.error();
+            statistics.unregister();
+            Statistics.AGGREGATE.detach(statistics);
+            if (tracer != null) {
+                tracer.onConnect(websocketURI, System.nanoTime() - start, false);
+            }
             // throws DeploymentException, IOException
             throw new RuntimeException("could not establish connection");
 
         }
     }
 
+    private WebSocketContainer container() {
+        if (container == null) {
+            container = sharedContainer();
+        }
+        return container;
+    }
+
+    private static WebSocketContainer sharedContainer() {
+        WebSocketContainer shared = sharedContainer;
+        if (shared == null) {
+            synchronized (SimpleWebSocketClient.class) {
+                shared = sharedContainer;
+                if (shared == null) {
+                    shared = ContainerProvider.getWebSocketContainer();
+                    sharedContainer = shared;
+                }
+            }
+        }
+        return shared;
+    }
+
     /**
      * Shutting down the current connection.
      */
     public void close() {
+        flushInterceptors();
         readyState = ReadyState.CLOSING;
+        closeSession(NORMAL_CLOSURE);
+    }
+
+    /**
+     * Shutting down the current connection, with the given status code.
+     *
+     * @param closeCode the RFC 6455 status code
+     * @param reason the reason, may be <code>null</code>
+     */
+    public void close(final int closeCode, final String reason) {
+        flushInterceptors();
+        readyState = ReadyState.CLOSING;
+        closeSession(new CloseReason(CloseReason.CloseCodes.getCloseCode(closeCode), reason));
+    }
+
+    /**
+     * Shutting down the current connection, without losing messages which are still in flight:
+     * new sends are rejected, the pending sends are written and the close frame of the peer is awaited.
+     * If this does not happen within the given time, the connection is closed forcefully. While a graceful
+     * close is in progress, its future is returned.
+     *
+     * @param timeout the maximum time to wait for the close
+     * @param unit the unit of the timeout
+     * @return the RFC 6455 status code of the close, or 1006 if the connection had to be closed forcefully
+     */
+    public synchronized Future<Integer> closeGracefully(final long timeout, final TimeUnit unit) {
+        final GracefulClose inProgress = this.gracefulClose;
+        if (inProgress != null) {
+            return inProgress.closed;
+        }
+
+        final CloseFuture closed = new CloseFuture();
+        final Session session = webSocketSession;
+        if (readyState == ReadyState.CLOSED || session == null) {
+            closed.complete(closeCode);
+            return closed;
+        }
+
+        flushInterceptors();
+        readyState = ReadyState.CLOSING;
+
+        final GracefulClose gracefulClose = new GracefulClose(closed, session);
+        this.gracefulClose = gracefulClose;
+        gracefulClose.deadline = ClientScheduler.get().schedule(gracefulClose, timeout, unit);
+
+        // no more sends from here, so we may be drained already:
+        if (statistics.getPendingSends() == 0) {
+            gracefulClose.drained();
+        }
+
+        return closed;
+    }
+
+    /**
+     * Sends the messages which the interceptors hold back, while sends are still accepted.
+     */
+    private void flushInterceptors() {
+        final InterceptorPipeline pipeline = this.pipeline;
+        if (pipeline != null && readyState == ReadyState.OPEN) {
+            pipeline.flush(pipeline.last());
+        }
+    }
+
+    /**
+     * Sends the close frame, IO problems are reported to the handler.
+     */
+    private void closeSession(final CloseReason closeReason) {
+        closeSession(webSocketSession, closeReason);
+    }
 
+    private void closeSession(final Session session, final CloseReason closeReason) {
         try {
-            webSocketSession.close(new CloseReason(CloseReason.CloseCodes.NORMAL_CLOSURE, null));
+            session.close(closeReason);
         } catch (IOException e) {
-            e.printStackTrace();
+            statistics.error();
+            webSocketHandler.onError(e);
+        }
+    }
+
+    /**
+     * Applies the rate limiters, parking the caller if needed.
+     */
+    private void throttle(final int payloadSize) {
+        final RateLimiter[] limiters = this.rateLimiters;
+        if (limiters.length == 0) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        long delay = 0;
+        for (int i = 0; i < limiters.length; i++) {
+            final long wait = limiters[i].reserve(payloadSize, now);
+            if (wait < 0) {
+                for (int j = 0; j < i; j++) {
+                    limiters[j].release(payloadSize);
+                }
+                statistics.rejected();
+                throw new RejectedExecutionException("rate limit exceeded");
+            }
+            delay = Math.max(delay, wait);
+        }
+
+        if (delay > 0) {
+            statistics.throttled(delay);
+            final long deadline = now + delay;
+            long remaining = delay;
+            while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Gives back what {@link #throttle(int)} reserved, for a send which is not written.
+     */
+    private void unthrottle(final int payloadSize) {
+        final RateLimiter[] limiters = this.rateLimiters;
+        for (int i = 0; i < limiters.length; i++) {
+            limiters[i].release(payloadSize);
+        }
+    }
+
+    /**
+     * Rejects the send if the client is closing gracefully, checked before the rate limiters
+     * are applied, which would otherwise take capacity and maybe park the caller in vain.
+     */
+    private void checkAccepting() {
+        if (gracefulClose != null) {
+            throw new IllegalStateException("client is closing, no more messages are accepted");
+        }
+    }
+
+    /**
+     * Increments the pending sends, unless the client is closing gracefully.
+     */
+    private void startSend(final int payloadSize) {
+        statistics.sendStarted();
+        if (gracefulClose != null) {
+            statistics.sendCompleted();
+            // the close started while the send was throttled
+            unthrottle(payloadSize);
+            throw new IllegalStateException("client is closing, no more messages are accepted");
         }
     }
 
@@ -117,7 +598,60 @@ public class SimpleWebSocketClient {
      * @param payload the payload string
      */
     public void sendText(final String payload) {
-        getRemote().sendText(payload);
+        sendText(payload, SendPriority.NORMAL, null);
+    }
+
+    /**
+     * Sends a text base payload
+     * @param payload the payload string
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     */
+    public void sendText(final String payload, final SendHandler completion) {
+        sendText(payload, SendPriority.NORMAL, completion);
+    }
+
+    /**
+     * Sends a text base payload
+     * @param payload the payload string
+     * @param priority the priority of the message
+     */
+    public void sendText(final String payload, final SendPriority priority) {
+        sendText(payload, priority, null);
+    }
+
+    /**
+     * Sends a text base payload
+     * @param payload the payload string
+     * @param priority the priority of the message
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     */
+    public void sendText(final String payload, final SendPriority priority, final SendHandler completion) {
+        final InterceptorPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.sendText(pipeline.last(), payload, priority, completion);
+        } else {
+            writeText(payload, priority, completion);
+        }
+    }
+
+    /**
+     * Sends the text message, after it passed the interceptors.
+     */
+    void writeText(final String payload, final SendPriority priority, final SendHandler completion) {
+        checkAccepting();
+        throttle(payload.length());
+        startSend(payload.length());
+        statistics.messageSent(payload);
+        final MessageRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.onSend(payload);
+        }
+        final OutboundWriter outbound = this.outbound;
+        if (outbound != null) {
+            outbound.sendText(payload, priority, completionOf(false, payload.length(), completion));
+        } else {
+            getRemote().sendText(payload, completionOf(false, payload.length(), completion));
+        }
     }
 
     /**
@@ -125,8 +659,188 @@ public class SimpleWebSocketClient {
      * @param payload the binary payload
      */
     public void sendBinary(final ByteBuffer payload) {
-        getRemote().sendBinary(payload);
+        sendBinary(payload, SendPriority.NORMAL, null);
+    }
+
+    /**
+     * Sends binary payload
+     * @param payload the binary payload
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     */
+    public void sendBinary(final ByteBuffer payload, final SendHandler completion) {
+        sendBinary(payload, SendPriority.NORMAL, completion);
+    }
+
+    /**
+     * Sends binary payload
+     * @param payload the binary payload
+     * @param priority the priority of the message
+     */
+    public void sendBinary(final ByteBuffer payload, final SendPriority priority) {
+        sendBinary(payload, priority, null);
+    }
+
+    /**
+     * Sends binary payload
+     * @param payload the binary payload
+     * @param priority the priority of the message
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     */
+    public void sendBinary(final ByteBuffer payload, final SendPriority priority, final SendHandler completion) {
+        final InterceptorPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.sendBinary(pipeline.last(), payload, priority, completion);
+        } else {
+            writeBinary(payload, priority, completion);
+        }
+    }
+
+    /**
+     * Sends the binary message, after it passed the interceptors.
+     */
+    void writeBinary(final ByteBuffer payload, final SendPriority priority, final SendHandler completion) {
+        checkAccepting();
+        throttle(payload.remaining());
+        startSend(payload.remaining());
+        statistics.messageSent(payload.remaining());
+        final MessageRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.onSend(payload);
+        }
+        final OutboundWriter outbound = this.outbound;
+        if (outbound != null) {
+            outbound.sendBinary(payload, priority, completionOf(true, payload.remaining(), completion));
+        } else {
+            getRemote().sendBinary(payload, completionOf(true, payload.remaining(), completion));
+        }
+    }
+
+    /**
+     * Passes an inbound message to the interceptors, or directly to the handler.
+     */
+    private void receive(final String message) {
+        final InterceptorPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.fireMessage(0, message);
+        } else {
+            deliver(message);
+        }
+    }
+
+    private void receive(final ByteBuffer message) {
+        final InterceptorPipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.fireMessage(0, message);
+        } else {
+            deliver(message);
+        }
+    }
+
+    /**
+     * Delivers an inbound message to the handler, after it passed the interceptors. Replays of a
+     * resumed session are dropped here, so the sequence numbers are taken from the messages the
+     * handler sees, e.g. the single messages of a batch.
+     */
+    void deliver(final String message) {
+        final SessionResumption resumption = this.resumption;
+        if (resumption == null) {
+            webSocketHandler.onMessage(message);
+            return;
+        }
+        final long sequence = resumption.sequenceOf(message);
+        if (resumption.accept(sequence)) {
+            webSocketHandler.onMessage(message);
+            resumption.processed(sequence);
+        }
+    }
+
+    void deliver(final ByteBuffer message) {
+        final SessionResumption resumption = this.resumption;
+        if (resumption == null) {
+            webSocketHandler.onMessage(message);
+            return;
+        }
+        final long sequence = resumption.sequenceOf(message);
+        if (resumption.accept(sequence)) {
+            webSocketHandler.onMessage(message);
+            resumption.processed(sequence);
+        }
+    }
+
+    /**
+     * Reports a failure of an interceptor to the handler.
+     */
+    void fail(final Throwable throwable) {
+        statistics.error();
+        webSocketHandler.onError(throwable);
+    }
+
+    /**
+     * Stops reading from the connection, until {@link #resumeReceiving()} is called. Messages which
+     * are already read may still be delivered. The server is slowed down by TCP flow control.
+     *
+     * @return <code>false</code> if the container does not support to suspend reading
+     */
+    public boolean suspendReceiving() {
+        return UndertowSessions.suspendReceives(webSocketSession);
+    }
+
+    /**
+     * Continues reading from the connection, after {@link #suspendReceiving()}.
+     */
+    public void resumeReceiving() {
+        UndertowSessions.resumeReceives(webSocketSession);
+    }
+
+    /**
+     * Sends a ping, the round trip time of the answering pong is available from the statistics.
+     */
+    public void ping() {
+        if (!pongHandlerAdded) {
+            addPongHandler();
+        }
+        final ByteBuffer sentAt = ByteBuffer.allocate(8);
+        sentAt.putLong(System.nanoTime()).flip();
 
+        final OutboundWriter outbound = this.outbound;
+        if (outbound != null) {
+            outbound.sendPing(sentAt);
+            return;
+        }
+        try {
+            getRemote().sendPing(sentAt);
+        } catch (IOException e) {
+            statistics.error();
+            webSocketHandler.onError(e);
+        }
+    }
+
+    /**
+     * The pong handler, answering our pings. It is added on demand, saving the handler for
+     * connections which never ping.
+     */
+    private synchronized void addPongHandler() {
+        if (!pongHandlerAdded) {
+            webSocketSession.addMessageHandler(new MessageHandler.Whole<PongMessage>() {
+                @Override
+                public void onMessage(PongMessage message) {
+                    final ByteBuffer sentAt = message.getApplicationData();
+                    if (sentAt.remaining() == 8) {
+                        statistics.roundTrip(System.nanoTime() - sentAt.getLong());
+                    }
+                }
+            });
+            pongHandlerAdded = true;
+        }
+    }
+
+    /**
+     * Returns the subprotocol, the server agreed on
+     * @return the subprotocol, or an empty string if none
+     */
+    public String getSubprotocol() {
+        final Session session = webSocketSession;
+        return (session != null) ? session.getNegotiatedSubprotocol() : "";
     }
 
     /**
@@ -143,46 +857,411 @@ public class SimpleWebSocketClient {
         return webSocketSession.getAsyncRemote();
     }
 
+    /**
+     * Helper to get the handler for the completion of a send. Without tracer and callback,
+     * the shared one is used, so that plain sends do not allocate.
+     */
+    private SendHandler completionOf(final boolean binary, final int payloadSize, final SendHandler completion) {
+        final WebSocketTracer tracer = this.tracer;
+        if (tracer == null && completion == null) {
+            return sendCompletion;
+        }
+        return new CallbackSendHandler(tracer, binary, payloadSize, completion);
+    }
+
+    /**
+     * State of a graceful close: sends the close frame once drained, and closes the
+     * connection forcefully once the deadline has passed. It only ever closes the session
+     * it was started for, not one of a reconnect.
+     */
+    private class GracefulClose implements Runnable {
+
+        private final CloseFuture closed;
+        private final Session session;
+        private final AtomicBoolean closeFrameSent = new AtomicBoolean();
+        private volatile ScheduledFuture<?> deadline;
+
+        GracefulClose(final CloseFuture closed, final Session session) {
+            this.closed = closed;
+            this.session = session;
+        }
+
+        void drained() {
+            if (closeFrameSent.compareAndSet(false, true)) {
+                closeSession(session, NORMAL_CLOSURE);
+            }
+        }
+
+        void closed(final int closeCode) {
+            closed.complete(closeCode);
+            final ScheduledFuture<?> deadline = this.deadline;
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (closed.complete(CloseReason.CloseCodes.CLOSED_ABNORMALLY.getCode())) {
+                if (SimpleWebSocketClient.this.gracefulClose == this) {
+                    readyState = ReadyState.CLOSED;
+                }
+                if (!UndertowSessions.forceClose(session)) {
+                    closeSession(session, NORMAL_CLOSURE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reports the completion of a send to the tracer and/or the callback of the caller,
+     * only created if one of them is present.
+     */
+    private class CallbackSendHandler implements SendHandler {
+
+        private final WebSocketTracer tracer;
+        private final boolean binary;
+        private final int payloadSize;
+        private final SendHandler completion;
+        private final long start;
+
+        CallbackSendHandler(final WebSocketTracer tracer, final boolean binary, final int payloadSize, final SendHandler completion) {
+            this.tracer = tracer;
+            this.binary = binary;
+            this.payloadSize = payloadSize;
+            this.completion = completion;
+            this.start = (tracer != null) ? System.nanoTime() : 0L;
+        }
+
+        @Override
+        public void onResult(final SendResult result) {
+            // the caller is notified first, a graceful close completes once the last send is counted
+            try {
+                if (tracer != null) {
+                    if (result.isOK()) {
+                        tracer.onSend(websocketURI, binary, payloadSize, System.nanoTime() - start);
+                    } else {
+                        tracer.onError(websocketURI, result.getException());
+                    }
+                }
+                if (completion != null) {
+                    completion.onResult(result);
+                }
+            } finally {
+                sendCompletion.onResult(result);
+            }
+        }
+    }
+
+    /**
+     * Builds a client, applying the given settings by the setters of the client. Settings which
+     * are not given keep their defaults.
+     *
+     * <pre>
+     * SimpleWebSocketClient client = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+     *         .maxIdleTimeout(30, TimeUnit.SECONDS)
+     *         .maxTextMessageBufferSize(512)
+     *         .containerBuffers(512, false)
+     *         .header("Authorization", "Bearer ...")
+     *         .handler(handler)
+     *         .build();
+     * </pre>
+     */
+    public static class Builder {
+
+        private final URI websocketURI;
+        private WebSocketHandler webSocketHandler;
+        private WebSocketTracer tracer;
+        private MessageRecorder recorder;
+        private SharedSslContext sslContext;
+        private SessionResumption resumption;
+        private WebSocketInterceptor[] interceptors = new WebSocketInterceptor[0];
+        private int fragmentSize;
+        private int[] priorityWeights;
+        private RateLimiter[] rateLimiters = NO_LIMITS;
+        private long maxIdleTimeout;
+        private TimeUnit maxIdleTimeoutUnit;
+        private Integer maxTextMessageBufferSize;
+        private Integer maxBinaryMessageBufferSize;
+        private final List<String> subprotocols = new ArrayList<String>();
+        private final Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        private Integer containerBufferSize;
+        private boolean directBuffers;
+        private boolean highDensity;
+
+        public Builder(final URI websocketURI) {
+            this.websocketURI = websocketURI;
+        }
+
+        public Builder(final String websocketURI) throws URISyntaxException {
+            this(new URI(websocketURI));
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setWebSocketHandler(WebSocketHandler)
+         */
+        public Builder handler(final WebSocketHandler webSocketHandler) {
+            this.webSocketHandler = webSocketHandler;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setTracer(WebSocketTracer)
+         */
+        public Builder tracer(final WebSocketTracer tracer) {
+            this.tracer = tracer;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setRecorder(MessageRecorder)
+         */
+        public Builder recorder(final MessageRecorder recorder) {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setSslContext(SharedSslContext)
+         */
+        public Builder sslContext(final SharedSslContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setInterceptors(WebSocketInterceptor...)
+         */
+        public Builder interceptors(final WebSocketInterceptor... interceptors) {
+            this.interceptors = interceptors.clone();
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setResumption(SessionResumption)
+         */
+        public Builder resumption(final SessionResumption resumption) {
+            this.resumption = resumption;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setFragmentSize(int)
+         */
+        public Builder fragmentSize(final int fragmentSize) {
+            this.fragmentSize = fragmentSize;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setPriorityWeights(int, int, int)
+         */
+        public Builder priorityWeights(final int high, final int normal, final int low) {
+            this.priorityWeights = new int[] {high, normal, low};
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setRateLimiters(RateLimiter...)
+         */
+        public Builder rateLimiters(final RateLimiter... rateLimiters) {
+            this.rateLimiters = rateLimiters.clone();
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setMaxIdleTimeout(long, TimeUnit)
+         */
+        public Builder maxIdleTimeout(final long timeout, final TimeUnit unit) {
+            this.maxIdleTimeout = timeout;
+            this.maxIdleTimeoutUnit = unit;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setMaxTextMessageBufferSize(int)
+         */
+        public Builder maxTextMessageBufferSize(final int size) {
+            this.maxTextMessageBufferSize = size;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setMaxBinaryMessageBufferSize(int)
+         */
+        public Builder maxBinaryMessageBufferSize(final int size) {
+            this.maxBinaryMessageBufferSize = size;
+            return this;
+        }
+
+        /**
+         * Adds subprotocols, in order of preference.
+         * @see SimpleWebSocketClient#setSubprotocols(String...)
+         */
+        public Builder subprotocols(final String... subprotocols) {
+            this.subprotocols.addAll(Arrays.asList(subprotocols));
+            return this;
+        }
+
+        /**
+         * Adds a header to the upgrade request.
+         * @see SimpleWebSocketClient#setHeaders(Map)
+         */
+        public Builder header(final String name, final String value) {
+            List<String> values = headers.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                headers.put(name, values);
+            }
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setContainerBuffers(int, boolean)
+         */
+        public Builder containerBuffers(final int bufferSize, final boolean direct) {
+            this.containerBufferSize = bufferSize;
+            this.directBuffers = direct;
+            return this;
+        }
+
+        /**
+         * @see SimpleWebSocketClient#setHighDensity(boolean)
+         */
+        public Builder highDensity() {
+            this.highDensity = true;
+            return this;
+        }
+
+        public SimpleWebSocketClient build() throws URISyntaxException {
+            final SimpleWebSocketClient client = new SimpleWebSocketClient(websocketURI, highDensity);
+            if (webSocketHandler != null) {
+                client.setWebSocketHandler(webSocketHandler);
+            }
+            client.setTracer(tracer);
+            client.setRecorder(recorder);
+            client.setSslContext(sslContext);
+            client.setResumption(resumption);
+            client.setInterceptors(interceptors);
+            client.setFragmentSize(fragmentSize);
+            if (priorityWeights != null) {
+                client.setPriorityWeights(priorityWeights[0], priorityWeights[1], priorityWeights[2]);
+            }
+            client.setRateLimiters(rateLimiters);
+            if (maxIdleTimeoutUnit != null) {
+                client.setMaxIdleTimeout(maxIdleTimeout, maxIdleTimeoutUnit);
+            }
+            if (maxTextMessageBufferSize != null) {
+                client.setMaxTextMessageBufferSize(maxTextMessageBufferSize);
+            }
+            if (maxBinaryMessageBufferSize != null) {
+                client.setMaxBinaryMessageBufferSize(maxBinaryMessageBufferSize);
+            }
+            client.setSubprotocols(subprotocols.toArray(new String[subprotocols.size()]));
+            client.setHeaders(headers);
+            if (containerBufferSize != null) {
+                client.setContainerBuffers(containerBufferSize, directBuffers);
+            }
+            return client;
+        }
+    }
+
     /**
      * Internal helper that implements all the mess from the JSR.
      * Currently provides code for 'onOpen', 'onClose', 'onError' and 'onMessage'
      */
-    private class SimpleWebSocketClientEndpoint extends Endpoint {
+    private class SimpleWebSocketClientEndpoint extends Endpoint implements MessageHandler.Whole<String> {
 
         @Override
         public void onOpen(final Session session, final EndpointConfig config) {
             readyState = ReadyState.OPEN;
             webSocketSession = session;
+            openedAt = System.nanoTime();
+            if (maxIdleTimeout >= 0) {
+                session.setMaxIdleTimeout(maxIdleTimeout);
+            }
+            if (maxTextMessageBufferSize > 0) {
+                session.setMaxTextMessageBufferSize(maxTextMessageBufferSize);
+            }
+            if (maxBinaryMessageBufferSize > 0) {
+                session.setMaxBinaryMessageBufferSize(maxBinaryMessageBufferSize);
+            }
+            final HandshakeTimer handshakeTimer = SimpleWebSocketClient.this.handshakeTimer;
+            if (handshakeTimer != null) {
+                handshakeTimings = handshakeTimer.opened();
+                statistics.handshake(handshakeTimings);
+                if (sslContext != null && "wss".equals(websocketURI.getScheme())) {
+                    sslContext.handshakeCompleted();
+                }
+                SimpleWebSocketClient.this.handshakeTimer = null;
+            }
+            if (outbound != null) {
+                outbound.attach(session);
+            }
 
             // callback:
             webSocketHandler.onOpen();
 
-            // text handler:
-            webSocketSession.addMessageHandler(new MessageHandler.Whole<String>() {
-                @Override
-                public void onMessage(String message) {
-                    webSocketHandler.onMessage(message);
-
-                }
-            });
+            // text handler, the endpoint itself:
+            webSocketSession.addMessageHandler(this);
 
             // binary handler
             webSocketSession.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
                 @Override
                 public void onMessage(ByteBuffer message) {
-                    webSocketHandler.onMessage(message);
+                    final WebSocketTracer tracer = SimpleWebSocketClient.this.tracer;
+                    statistics.messageReceived(message.remaining());
+                    if (tracer != null) {
+                        tracer.onReceive(websocketURI, true, message.remaining());
+                    }
+                    final MessageRecorder recorder = SimpleWebSocketClient.this.recorder;
+                    if (recorder != null) {
+                        recorder.onReceive(message);
+                    }
+                    receive(message);
                 }
             });
+
+            // the pong handler is added by the first ping
+        }
+
+        @Override
+        public void onMessage(final String message) {
+            final WebSocketTracer tracer = SimpleWebSocketClient.this.tracer;
+            statistics.messageReceived(message);
+            if (tracer != null) {
+                tracer.onReceive(websocketURI, false, message.length());
+            }
+            final MessageRecorder recorder = SimpleWebSocketClient.this.recorder;
+            if (recorder != null) {
+                recorder.onReceive(message);
+            }
+            receive(message);
         }
 
         public void onClose(final Session session, final CloseReason closeReason) {
             readyState = ReadyState.CLOSED;
+            closeCode = closeReason.getCloseCode().getCode();
+            final GracefulClose gracefulClose = SimpleWebSocketClient.this.gracefulClose;
+            if (gracefulClose != null) {
+                gracefulClose.closed(closeCode);
+            }
+            statistics.unregister();
+            Statistics.AGGREGATE.detach(statistics);
+            if (tracer != null) {
+                tracer.onClose(websocketURI, closeReason.getCloseCode().getCode(), System.nanoTime() - openedAt);
+            }
             webSocketHandler.onClose(closeReason.getCloseCode().getCode(), closeReason.getReasonPhrase());
         }
 
         public void onError(final Session session, final Throwable throwable) {
             readyState = ReadyState.CLOSED;
             throwable.printStackTrace();
+            statistics.error();
+            if (tracer != null) {
+                tracer.onError(websocketURI, throwable);
+            }
             webSocketHandler.onError(throwable);
         }
     }
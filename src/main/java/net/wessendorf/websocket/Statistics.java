@@ -0,0 +1,256 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counters backing the JMX statistics. The counters are updated on the hot path, so they are
+ * plain atomic updates, guarded by a volatile flag that allows to switch off the collection at runtime.
+ * Disabling the {@link #AGGREGATE} switches the collection off for all clients.
+ */
+class Statistics implements WebSocketStatisticsMXBean {
+
+    static final String DOMAIN = "net.wessendorf.websocket";
+
+    private static final Logger LOGGER = Logger.getLogger(Statistics.class.getName());
+
+    private static final AtomicLongFieldUpdater<Statistics> MESSAGES_RECEIVED = AtomicLongFieldUpdater.newUpdater(Statistics.class, "messagesReceived");
+    private static final AtomicLongFieldUpdater<Statistics> MESSAGES_SENT = AtomicLongFieldUpdater.newUpdater(Statistics.class, "messagesSent");
+    private static final AtomicLongFieldUpdater<Statistics> BYTES_RECEIVED = AtomicLongFieldUpdater.newUpdater(Statistics.class, "bytesReceived");
+    private static final AtomicLongFieldUpdater<Statistics> BYTES_SENT = AtomicLongFieldUpdater.newUpdater(Statistics.class, "bytesSent");
+    private static final AtomicLongFieldUpdater<Statistics> PENDING_SENDS = AtomicLongFieldUpdater.newUpdater(Statistics.class, "pendingSends");
+    private static final AtomicLongFieldUpdater<Statistics> RECONNECTS = AtomicLongFieldUpdater.newUpdater(Statistics.class, "reconnects");
+    private static final AtomicLongFieldUpdater<Statistics> ERRORS = AtomicLongFieldUpdater.newUpdater(Statistics.class, "errors");
+    private static final AtomicLongFieldUpdater<Statistics> THROTTLED_NANOS = AtomicLongFieldUpdater.newUpdater(Statistics.class, "throttledNanos");
+    private static final AtomicLongFieldUpdater<Statistics> REJECTED_SENDS = AtomicLongFieldUpdater.newUpdater(Statistics.class, "rejectedSends");
+
+    // indices of the cumulative counters, see counters()
+    static final int MESSAGES_RECEIVED_INDEX = 0;
+    static final int MESSAGES_SENT_INDEX = 1;
+    static final int BYTES_RECEIVED_INDEX = 2;
+    static final int BYTES_SENT_INDEX = 3;
+    static final int RECONNECTS_INDEX = 4;
+    static final int ERRORS_INDEX = 5;
+    static final int THROTTLED_NANOS_INDEX = 6;
+    static final int REJECTED_SENDS_INDEX = 7;
+    static final int COUNTERS = 8;
+
+    /**
+     * The aggregate over all clients of this JVM.
+     */
+    static final AggregateStatistics AGGREGATE = new AggregateStatistics();
+
+    static {
+        register(AGGREGATE, DOMAIN + ":type=SimpleWebSocketClient,name=aggregate");
+    }
+
+    private volatile boolean enabled = true;
+
+    // plain fields instead of atomics, saving nine objects per client
+    private volatile long messagesReceived;
+    private volatile long messagesSent;
+    private volatile long bytesReceived;
+    private volatile long bytesSent;
+    private volatile long pendingSends;
+    private volatile long reconnects;
+    private volatile long errors;
+    private volatile long throttledNanos;
+    private volatile long rejectedSends;
+
+    private boolean collecting() {
+        return enabled && AGGREGATE.isEnabled();
+    }
+
+    void messageReceived(final int payloadSize) {
+        if (collecting()) {
+            MESSAGES_RECEIVED.incrementAndGet(this);
+            BYTES_RECEIVED.addAndGet(this, payloadSize);
+        }
+    }
+
+    /**
+     * Counts the UTF-8 encoded size of a text message, only computed while collecting.
+     */
+    void messageReceived(final String payload) {
+        if (collecting()) {
+            MESSAGES_RECEIVED.incrementAndGet(this);
+            BYTES_RECEIVED.addAndGet(this, Utf8.length(payload));
+        }
+    }
+
+    void sendStarted() {
+        PENDING_SENDS.incrementAndGet(this);
+    }
+
+    void messageSent(final int payloadSize) {
+        if (collecting()) {
+            MESSAGES_SENT.incrementAndGet(this);
+            BYTES_SENT.addAndGet(this, payloadSize);
+        }
+    }
+
+    /**
+     * Counts the UTF-8 encoded size of a text message, only computed while collecting.
+     */
+    void messageSent(final String payload) {
+        if (collecting()) {
+            MESSAGES_SENT.incrementAndGet(this);
+            BYTES_SENT.addAndGet(this, Utf8.length(payload));
+        }
+    }
+
+    void sendCompleted() {
+        PENDING_SENDS.decrementAndGet(this);
+    }
+
+    void reconnected() {
+        if (collecting()) {
+            RECONNECTS.incrementAndGet(this);
+        }
+    }
+
+    void error() {
+        if (collecting()) {
+            ERRORS.incrementAndGet(this);
+        }
+    }
+
+    void throttled(final long nanos) {
+        if (collecting()) {
+            THROTTLED_NANOS.addAndGet(this, nanos);
+        }
+    }
+
+    void rejected() {
+        if (collecting()) {
+            REJECTED_SENDS.incrementAndGet(this);
+        }
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public long getPendingSends() {
+        return pendingSends;
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return reconnects;
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors;
+    }
+
+    @Override
+    public long getThrottledNanos() {
+        return throttledNanos;
+    }
+
+    @Override
+    public long getRejectedSends() {
+        return rejectedSends;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void reset() {
+        messagesReceived = 0;
+        messagesSent = 0;
+        bytesReceived = 0;
+        bytesSent = 0;
+        reconnects = 0;
+        errors = 0;
+        throttledNanos = 0;
+        rejectedSends = 0;
+    }
+
+    /**
+     * Snapshot of the cumulative counters, that is all but the pending sends.
+     */
+    long[] counters() {
+        final long[] counters = new long[COUNTERS];
+        counters[MESSAGES_RECEIVED_INDEX] = messagesReceived;
+        counters[MESSAGES_SENT_INDEX] = messagesSent;
+        counters[BYTES_RECEIVED_INDEX] = bytesReceived;
+        counters[BYTES_SENT_INDEX] = bytesSent;
+        counters[RECONNECTS_INDEX] = reconnects;
+        counters[ERRORS_INDEX] = errors;
+        counters[THROTTLED_NANOS_INDEX] = throttledNanos;
+        counters[REJECTED_SENDS_INDEX] = rejectedSends;
+        return counters;
+    }
+
+    /**
+     * Registers the given bean with the platform MBean server. JMX is not essential for the client,
+     * therefore failures are only logged.
+     */
+    static ObjectName register(final Object bean, final String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(name);
+            server.registerMBean(bean, objectName);
+            return objectName;
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "could not register MBean " + name, e);
+            return null;
+        }
+    }
+
+    static void unregister(final ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "could not unregister MBean " + objectName, e);
+        }
+    }
+}
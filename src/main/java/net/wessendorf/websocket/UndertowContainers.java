@@ -0,0 +1,79 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import io.undertow.servlet.api.ThreadSetupAction;
+import io.undertow.servlet.core.CompositeThreadSetupAction;
+import io.undertow.servlet.util.DefaultClassIntrospector;
+import io.undertow.websockets.jsr.ServerWebSocketContainer;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Undertow containers with a custom buffer pool. The default container of the JVM reads and
+ * writes through 1 KB heap buffers. Each further configuration gets its own container, with its
+ * own I/O threads, shared by all clients using that configuration.
+ */
+final class UndertowContainers {
+
+    private static final ConcurrentMap<String, WebSocketContainer> CONTAINERS = new ConcurrentHashMap<String, WebSocketContainer>();
+
+    private UndertowContainers() {
+    }
+
+    /**
+     * @param bufferSize size of the pooled I/O buffers, in bytes
+     * @param direct <code>true</code> for direct buffers, <code>false</code> for heap buffers
+     */
+    static WebSocketContainer get(final int bufferSize, final boolean direct) {
+        final String key = bufferSize + (direct ? "/direct" : "/heap");
+        WebSocketContainer container = CONTAINERS.get(key);
+        if (container == null) {
+            synchronized (CONTAINERS) {
+                container = CONTAINERS.get(key);
+                if (container == null) {
+                    container = create(bufferSize, direct);
+                    CONTAINERS.put(key, container);
+                }
+            }
+        }
+        return container;
+    }
+
+    private static WebSocketContainer create(final int bufferSize, final boolean direct) {
+        try {
+            final XnioWorker worker = Xnio.getInstance().createWorker(OptionMap.create(Options.THREAD_DAEMON, true));
+            // slabs of ten buffers, like the default container
+            final ByteBufferSlicePool buffers = new ByteBufferSlicePool(
+                    direct ? BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR : BufferAllocator.BYTE_BUFFER_ALLOCATOR,
+                    bufferSize, bufferSize * 10);
+            return new ServerWebSocketContainer(DefaultClassIntrospector.INSTANCE, UndertowContainers.class.getClassLoader(),
+                    worker, buffers, new CompositeThreadSetupAction(Collections.<ThreadSetupAction>emptyList()), true);
+        } catch (IOException e) {
+            throw new RuntimeException("could not create container", e);
+        }
+    }
+}
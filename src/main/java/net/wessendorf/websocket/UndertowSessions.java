@@ -0,0 +1,95 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import io.undertow.websockets.jsr.UndertowSession;
+
+import javax.websocket.Session;
+
+/**
+ * Undertow specific features of a session. Undertow is an optional dependency, the client works
+ * with any JSR 356 container: without Undertow on the classpath, or for sessions of another container,
+ * the methods return <code>false</code> and the caller falls back to the standard API.
+ */
+final class UndertowSessions {
+
+    private static final boolean AVAILABLE = isPresent("io.undertow.websockets.jsr.UndertowSession");
+
+    private UndertowSessions() {
+        // noop
+    }
+
+    /**
+     * Closes the connection without the closing handshake.
+     *
+     * @return <code>false</code> if not supported for the session
+     */
+    static boolean forceClose(final Session session) {
+        return AVAILABLE && Undertow.forceClose(session);
+    }
+
+    /**
+     * Stops reading from the connection.
+     *
+     * @return <code>false</code> if not supported for the session
+     */
+    static boolean suspendReceives(final Session session) {
+        return AVAILABLE && Undertow.suspendReceives(session);
+    }
+
+    static void resumeReceives(final Session session) {
+        if (AVAILABLE) {
+            Undertow.resumeReceives(session);
+        }
+    }
+
+    private static boolean isPresent(final String className) {
+        try {
+            Class.forName(className, false, UndertowSessions.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Touches the Undertow classes, only loaded if they are present.
+     */
+    private static final class Undertow {
+
+        static boolean forceClose(final Session session) {
+            if (session instanceof UndertowSession) {
+                ((UndertowSession) session).forceClose();
+                return true;
+            }
+            return false;
+        }
+
+        static boolean suspendReceives(final Session session) {
+            if (session instanceof UndertowSession) {
+                ((UndertowSession) session).getWebSocketChannel().suspendReceives();
+                return true;
+            }
+            return false;
+        }
+
+        static void resumeReceives(final Session session) {
+            if (session instanceof UndertowSession) {
+                ((UndertowSession) session).getWebSocketChannel().resumeReceives();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 encoding into a buffer at an absolute index, without the allocations of the JDK encoders.
+ */
+final class Utf8 {
+
+    private Utf8() {
+    }
+
+    static int length(final String text) {
+        final int chars = text.length();
+        int length = 0;
+        for (int i = 0; i < chars; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Encodes the text, unpaired surrogates are replaced by U+FFFD.
+     */
+    static void encode(final String text, final ByteBuffer buffer, final int offset) {
+        final int chars = text.length();
+        int index = offset;
+        for (int i = 0; i < chars; i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put(index++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(index++, (byte) (0xc0 | (c >> 6)));
+                buffer.put(index++, (byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(text.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put(index++, (byte) (0xf0 | (codePoint >> 18)));
+                buffer.put(index++, (byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put(index++, (byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put(index++, (byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(index++, (byte) 0xef);
+                buffer.put(index++, (byte) 0xbf);
+                buffer.put(index++, (byte) 0xbd);
+            } else {
+                buffer.put(index++, (byte) (0xe0 | (c >> 12)));
+                buffer.put(index++, (byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put(index++, (byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+}
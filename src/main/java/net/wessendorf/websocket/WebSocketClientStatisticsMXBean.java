@@ -0,0 +1,54 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * Statistics of a single {@link SimpleWebSocketClient}. While connected they are registered as
+ * <code>net.wessendorf.websocket:type=SimpleWebSocketClient,name=&lt;URI&gt;#&lt;id&gt;</code>.
+ */
+public interface WebSocketClientStatisticsMXBean extends WebSocketStatisticsMXBean {
+
+    /**
+     * The URI of the connection
+     */
+    String getURI();
+
+    /**
+     * The @{ReadyState} for the underlying connection
+     */
+    ReadyState getReadyState();
+
+    /**
+     * The round trip time of the last answered ping, in nanoseconds, or <code>-1</code> if none.
+     */
+    long getLastRoundTripNanos();
+
+    /**
+     * Time for resolving the host name on the last connect, in nanoseconds, or <code>-1</code> if none.
+     */
+    long getLastDnsNanos();
+
+    /**
+     * Time for TCP connect, TLS handshake and HTTP upgrade on the last connect, in nanoseconds, or
+     * <code>-1</code> if none.
+     */
+    long getLastUpgradeNanos();
+
+    /**
+     * Total time of the last connect, in nanoseconds, or <code>-1</code> if none.
+     */
+    long getLastConnectNanos();
+}
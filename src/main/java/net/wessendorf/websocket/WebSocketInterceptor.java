@@ -0,0 +1,76 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import java.nio.ByteBuffer;
+
+/**
+ * Cross-cutting logic around the {@link WebSocketHandler} and the sends of a client, e.g.
+ * authentication, logging or metrics, see {@link SimpleWebSocketClient#setInterceptors(WebSocketInterceptor...)}.
+ *
+ * Interceptors are ordered from the network to the handler: inbound messages pass them first to
+ * last, outbound messages last to first. An interceptor passes a message on through its
+ * {@link InterceptorContext}, or consumes it by not doing so. It may pass on a different message,
+ * e.g. a decoded one. Inbound messages are intercepted by the receiving thread, outbound messages
+ * by the sending threads.
+ */
+public interface WebSocketInterceptor {
+
+    /**
+     * Invoked for an inbound text message.
+     *
+     * @param message the text message
+     * @param context passes the message on, by {@link InterceptorContext#fireMessage(String)}
+     */
+    void onMessage(String message, InterceptorContext context);
+
+    /**
+     * Invoked for an inbound binary message. The container may reuse the buffer, once the
+     * message was passed on.
+     *
+     * @param message the binary message
+     * @param context passes the message on, by {@link InterceptorContext#fireMessage(ByteBuffer)}
+     */
+    void onMessage(ByteBuffer message, InterceptorContext context);
+
+    /**
+     * Invoked for an outbound text message.
+     *
+     * @param payload the payload string
+     * @param priority the priority of the message
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     * @param context passes the message on, by {@link InterceptorContext#sendText(String, SendPriority, SendHandler)}
+     */
+    void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context);
+
+    /**
+     * Invoked for an outbound binary message.
+     *
+     * @param payload the binary payload
+     * @param priority the priority of the message
+     * @param completion notified once the container has written the message, may be <code>null</code>
+     * @param context passes the message on, by {@link InterceptorContext#sendBinary(ByteBuffer, SendPriority, SendHandler)}
+     */
+    void sendBinary(ByteBuffer payload, SendPriority priority, SendHandler completion, InterceptorContext context);
+
+    /**
+     * Invoked before the client closes, messages which the interceptor holds back have to be sent now.
+     *
+     * @param context passes the flush on, by {@link InterceptorContext#flush()}
+     */
+    void flush(InterceptorContext context);
+}
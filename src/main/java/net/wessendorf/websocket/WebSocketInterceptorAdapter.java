@@ -0,0 +1,50 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import javax.websocket.SendHandler;
+import java.nio.ByteBuffer;
+
+/**
+ * Convenience implementation for the WebSocketInterceptor, passing all messages on
+ */
+public class WebSocketInterceptorAdapter implements WebSocketInterceptor {
+
+    @Override
+    public void onMessage(String message, InterceptorContext context) {
+        context.fireMessage(message);
+    }
+
+    @Override
+    public void onMessage(ByteBuffer message, InterceptorContext context) {
+        context.fireMessage(message);
+    }
+
+    @Override
+    public void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+        context.sendText(payload, priority, completion);
+    }
+
+    @Override
+    public void sendBinary(ByteBuffer payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+        context.sendBinary(payload, priority, completion);
+    }
+
+    @Override
+    public void flush(InterceptorContext context) {
+        context.flush();
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+/**
+ * Traffic statistics, exposed via JMX. The aggregate over all clients of the JVM is registered as
+ * <code>net.wessendorf.websocket:type=SimpleWebSocketClient,name=aggregate</code>.
+ */
+public interface WebSocketStatisticsMXBean {
+
+    /**
+     * Number of received messages
+     */
+    long getMessagesReceived();
+
+    /**
+     * Number of sent messages
+     */
+    long getMessagesSent();
+
+    /**
+     * Received payload in bytes, text messages count with their UTF-8 encoded size
+     */
+    long getBytesReceived();
+
+    /**
+     * Sent payload in bytes, text messages count with their UTF-8 encoded size
+     */
+    long getBytesSent();
+
+    /**
+     * Number of sends which are not yet completed by the container
+     */
+    long getPendingSends();
+
+    /**
+     * Number of connects, after the first one
+     */
+    long getReconnectCount();
+
+    /**
+     * Number of errors, reported by the container
+     */
+    long getErrorCount();
+
+    /**
+     * Total time, sends were delayed by a {@link RateLimiter}
+     */
+    long getThrottledNanos();
+
+    /**
+     * Number of sends, rejected by a {@link RateLimiter}
+     */
+    long getRejectedSends();
+
+    /**
+     * If <code>false</code> the counters are not updated, except the pending sends. Disabling
+     * the aggregate switches the collection off for all clients.
+     */
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * Sets all counters back to zero, except the pending sends.
+     */
+    void reset();
+}
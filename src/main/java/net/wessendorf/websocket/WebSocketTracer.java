@@ -0,0 +1,73 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.net.URI;
+
+/**
+ * Receives low level profiling events of a {@link SimpleWebSocketClient}, e.g. to
+ * forward them as custom events into a flight recording.
+ *
+ * No tracer is installed by default, in that case the client does not even take
+ * the timestamps. All durations are given in nanoseconds.
+ */
+public interface WebSocketTracer {
+
+    /**
+     * Invoked after the opening handshake finished, or failed.
+     *
+     * @param uri the WebSocket URI
+     * @param durationNanos time spent for TCP connect and HTTP upgrade
+     * @param success <code>false</code> if no connection could be established
+     */
+    void onConnect(URI uri, long durationNanos, boolean success);
+
+    /**
+     * Invoked once an outbound message was written by the container.
+     *
+     * @param uri the WebSocket URI
+     * @param binary <code>true</code> for binary, <code>false</code> for text messages
+     * @param payloadSize size of the payload, in bytes for binary and in characters for text messages
+     * @param durationNanos time between handing the message to the client and its completion
+     */
+    void onSend(URI uri, boolean binary, int payloadSize, long durationNanos);
+
+    /**
+     * Invoked on arrival of a message, before the {@link WebSocketHandler} is called.
+     *
+     * @param uri the WebSocket URI
+     * @param binary <code>true</code> for binary, <code>false</code> for text messages
+     * @param payloadSize size of the payload, in bytes for binary and in characters for text messages
+     */
+    void onReceive(URI uri, boolean binary, int payloadSize);
+
+    /**
+     * Invoked after the connection was closed.
+     *
+     * @param uri the WebSocket URI
+     * @param closeCode the RFC 6455 status code
+     * @param sessionDurationNanos lifetime of the session
+     */
+    void onClose(URI uri, int closeCode, long sessionDurationNanos);
+
+    /**
+     * Invoked after an error.
+     *
+     * @param uri the WebSocket URI
+     * @param throwable the cause
+     */
+    void onError(URI uri, Throwable throwable);
+}
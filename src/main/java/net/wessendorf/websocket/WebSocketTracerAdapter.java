@@ -0,0 +1,49 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import java.net.URI;
+
+/**
+ * Convenience implementation for the WebSocketTracer
+ */
+public class WebSocketTracerAdapter implements WebSocketTracer {
+
+    @Override
+    public void onConnect(URI uri, long durationNanos, boolean success) {
+
+    }
+
+    @Override
+    public void onSend(URI uri, boolean binary, int payloadSize, long durationNanos) {
+
+    }
+
+    @Override
+    public void onReceive(URI uri, boolean binary, int payloadSize) {
+
+    }
+
+    @Override
+    public void onClose(URI uri, int closeCode, long sessionDurationNanos) {
+
+    }
+
+    @Override
+    public void onError(URI uri, Throwable throwable) {
+
+    }
+}
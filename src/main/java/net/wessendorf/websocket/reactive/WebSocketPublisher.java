@@ -0,0 +1,298 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.reactive;
+
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.WebSocketHandler;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exposes the inbound messages of a {@link SimpleWebSocketClient} as Reactive Streams publishers,
+ * one for text and one for binary messages, each allowing a single subscriber.
+ *
+ * Messages are buffered until they are requested. Once the buffer is full, the client stops reading
+ * from the socket, so that the server is slowed down by TCP flow control instead of filling the heap.
+ * Reading continues when half of the buffer has been consumed. If the container can not suspend reading,
+ * the delivering container thread is blocked instead.
+ *
+ * Messages of a type nobody subscribed to yet are buffered as well, so a subscriber for every
+ * type the server sends is needed. After a subscriber has cancelled, its messages are discarded.
+ */
+public class WebSocketPublisher implements WebSocketHandler {
+
+    private final SimpleWebSocketClient client;
+    private final int bufferSize;
+    private final int resumeThreshold;
+
+    // messages buffered over both publishers
+    private final AtomicInteger buffered = new AtomicInteger();
+    private volatile boolean suspended;
+    private volatile boolean blocked;
+    private volatile boolean closed;
+
+    private final MessagePublisher<String> textMessages = new MessagePublisher<String>();
+    private final MessagePublisher<ByteBuffer> binaryMessages = new MessagePublisher<ByteBuffer>();
+
+    /**
+     * Creates the publishers and applies them as handler of the given client.
+     *
+     * @param client the client, not yet connected
+     * @param bufferSize the number of messages which are buffered, before reading is suspended
+     */
+    public WebSocketPublisher(final SimpleWebSocketClient client, final int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.client = client;
+        this.bufferSize = bufferSize;
+        this.resumeThreshold = bufferSize / 2;
+
+        client.setWebSocketHandler(this);
+    }
+
+    /**
+     * The publisher of inbound text messages
+     */
+    public Publisher<String> textMessages() {
+        return textMessages;
+    }
+
+    /**
+     * The publisher of inbound binary messages
+     */
+    public Publisher<ByteBuffer> binaryMessages() {
+        return binaryMessages;
+    }
+
+    @Override
+    public void onOpen() {
+        closed = false;
+    }
+
+    @Override
+    public void onClose(final int closeCode, final String reason) {
+        closed = true;
+        final Throwable error = (closeCode == 1000 || closeCode == 1001) ? null : new IOException("connection closed with " + closeCode + ": " + reason);
+        textMessages.terminate(error);
+        binaryMessages.terminate(error);
+        unblock();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        closed = true;
+        textMessages.terminate(throwable);
+        binaryMessages.terminate(throwable);
+        unblock();
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        buffered.incrementAndGet();
+        textMessages.offer(message);
+        applyBackpressure();
+    }
+
+    @Override
+    public void onMessage(final ByteBuffer message) {
+        // the container may reuse the buffer once we return
+        final ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+        copy.put(message).flip();
+
+        buffered.incrementAndGet();
+        binaryMessages.offer(copy);
+        applyBackpressure();
+    }
+
+    private void applyBackpressure() {
+        if (buffered.get() < bufferSize) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!suspended && buffered.get() >= bufferSize) {
+                suspended = client.suspendReceiving();
+                if (suspended) {
+                    return;
+                }
+
+                // no support for suspending, hold the container thread instead
+                blocked = true;
+                try {
+                    while (buffered.get() >= bufferSize && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    blocked = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Invoked for every message which left the buffer, delivered or discarded.
+     */
+    private void released() {
+        final int remaining = buffered.decrementAndGet();
+        if (suspended && remaining <= resumeThreshold) {
+            synchronized (this) {
+                if (suspended && buffered.get() <= resumeThreshold) {
+                    suspended = false;
+                    client.resumeReceiving();
+                }
+            }
+        } else if (blocked && remaining < bufferSize) {
+            unblock();
+        }
+    }
+
+    private synchronized void unblock() {
+        notifyAll();
+    }
+
+    /**
+     * A unicast publisher, draining its queue according to the demand of the subscriber.
+     */
+    private final class MessagePublisher<T> implements Publisher<T>, Subscription {
+
+        private final Queue<T> queue = new ConcurrentLinkedQueue<T>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+
+        private volatile Subscriber<? super T> subscriber;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile Throwable invalidRequest;
+        private boolean terminated;
+
+        @Override
+        public void subscribe(final Subscriber<? super T> subscriber) {
+            if (!subscribed.compareAndSet(false, true)) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("only a single subscriber is supported"));
+                return;
+            }
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("requested " + n + " messages, must be positive (rule 3.9)");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (!requested.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        void offer(final T message) {
+            queue.offer(message);
+            drain();
+        }
+
+        void terminate(final Throwable error) {
+            this.error = error;
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+
+            int missed = 1;
+            do {
+                final Subscriber<? super T> subscriber = this.subscriber;
+                if (cancelled || terminated) {
+                    while (queue.poll() != null) {
+                        released();
+                    }
+                } else if (subscriber != null) {
+                    if (invalidRequest != null) {
+                        terminated = true;
+                        subscriber.onError(invalidRequest);
+                        continue;
+                    }
+
+                    final long demand = requested.get();
+                    long emitted = 0;
+                    while (emitted != demand) {
+                        final T message = queue.poll();
+                        if (message == null) {
+                            break;
+                        }
+                        subscriber.onNext(message);
+                        released();
+                        emitted++;
+                    }
+                    if (emitted != 0 && demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+                    if (done && queue.isEmpty()) {
+                        terminated = true;
+                        final Throwable error = this.error;
+                        if (error != null) {
+                            subscriber.onError(error);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                        continue;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
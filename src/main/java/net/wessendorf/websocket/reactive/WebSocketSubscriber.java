@@ -0,0 +1,112 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.reactive;
+
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Sends the elements of a Reactive Streams publisher over a {@link SimpleWebSocketClient}.
+ * At most <code>window</code> messages are in flight, a new one is requested whenever the container
+ * completed a send. The subscription is cancelled on the first failed send, once the client is closing,
+ * or once a rate limiter of the client rejects a send.
+ *
+ * Completion of the publisher does not close the connection.
+ */
+public final class WebSocketSubscriber<T> implements Subscriber<T> {
+
+    private final SimpleWebSocketClient client;
+    private final int window;
+    private final boolean binary;
+
+    private volatile Subscription subscription;
+
+    // shared by all sends, so that sending does not allocate
+    private final SendHandler completion = new SendHandler() {
+        @Override
+        public void onResult(final SendResult result) {
+            if (result.isOK()) {
+                subscription.request(1);
+            } else {
+                subscription.cancel();
+            }
+        }
+    };
+
+    private WebSocketSubscriber(final SimpleWebSocketClient client, final int window, final boolean binary) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.client = client;
+        this.window = window;
+        this.binary = binary;
+    }
+
+    /**
+     * Creates a subscriber, sending text messages
+     */
+    public static WebSocketSubscriber<String> text(final SimpleWebSocketClient client, final int window) {
+        return new WebSocketSubscriber<String>(client, window, false);
+    }
+
+    /**
+     * Creates a subscriber, sending binary messages
+     */
+    public static WebSocketSubscriber<ByteBuffer> binary(final SimpleWebSocketClient client, final int window) {
+        return new WebSocketSubscriber<ByteBuffer>(client, window, true);
+    }
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        if (this.subscription != null) {
+            // rule 2.5, only one subscription at a time
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(final T message) {
+        try {
+            if (binary) {
+                client.sendBinary((ByteBuffer) message, completion);
+            } else {
+                client.sendText((String) message, completion);
+            }
+        } catch (IllegalStateException | RejectedExecutionException e) {
+            // closing, or over the rate limit: rule 2.13, onNext returns normally
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+
+    }
+
+    @Override
+    public void onComplete() {
+
+    }
+}
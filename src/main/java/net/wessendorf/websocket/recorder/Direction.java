@@ -0,0 +1,33 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.recorder;
+
+/**
+ * Direction of the recorded messages, each direction is written to its own log.
+ */
+public enum Direction {
+
+    INBOUND,
+
+    OUTBOUND;
+
+    /**
+     * Name of the log segment with the given index.
+     */
+    String segmentName(final int index) {
+        return String.format("%s-%08d.log", name().toLowerCase(), index);
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.recorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends the records of one direction to memory-mapped segment files of a fixed size.
+ *
+ * Each record is laid out as <code>int length, int type, long timestamp, payload</code>, aligned to
+ * eight bytes. A writer claims the space of its record by advancing the tail position with compare
+ * and set, writes the length right away and the type last: a record which is never completed keeps
+ * the type <code>0</code>, and the reader skips it by its length. There are no locks, and no allocation besides mapping a new
+ * segment: so the inbound side, written by a single thread, never contends, and concurrent senders
+ * only race for the tail.
+ */
+final class LogAppender implements Closeable {
+
+    static final int HEADER = 16;
+    static final int TEXT = 1;
+    static final int BINARY = 2;
+    static final int PADDING = 3;
+
+    private static final Logger LOGGER = Logger.getLogger(LogAppender.class.getName());
+
+    // mapped segments, a writer lagging behind further maps its segment again
+    private static final int WINDOW = 4;
+
+    private final File directory;
+    private final Direction direction;
+    private final int segmentSize;
+
+    private final long epochNanos = System.currentTimeMillis() * 1000000L;
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<Segment>(WINDOW);
+    private volatile boolean closed;
+
+    LogAppender(final File directory, final Direction direction, final int segmentSize) throws IOException {
+        this.directory = directory;
+        this.direction = direction;
+        this.segmentSize = segmentSize;
+        segment(0);
+    }
+
+    void appendText(final String text) {
+        final int size = Utf8.length(text);
+        final long position = claim(HEADER + size);
+        if (position < 0) {
+            return;
+        }
+        final ByteBuffer buffer = buffer(position);
+        if (buffer != null) {
+            final int offset = (int) (position % segmentSize);
+            buffer.putInt(offset, HEADER + size);
+            Utf8.encode(text, buffer, offset + HEADER);
+            publish(buffer, offset, TEXT);
+        }
+    }
+
+    void appendBinary(final ByteBuffer payload) {
+        final int size = payload.remaining();
+        final long position = claim(HEADER + size);
+        if (position < 0) {
+            return;
+        }
+        final ByteBuffer buffer = buffer(position);
+        if (buffer != null) {
+            final int offset = (int) (position % segmentSize);
+            buffer.putInt(offset, HEADER + size);
+            copy(payload, buffer, offset + HEADER);
+            publish(buffer, offset, BINARY);
+        }
+    }
+
+    /**
+     * Number of records, which were not written since they do not fit into a segment, or
+     * the log was closed or broken.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < WINDOW; i++) {
+            final Segment segment = segments.get(i);
+            if (segment != null) {
+                segment.buffer.force();
+            }
+        }
+    }
+
+    /**
+     * Claims the space for a record, moving on to the next segment if it does not fit.
+     *
+     * @return the position of the record, or <code>-1</code> if it is dropped
+     */
+    private long claim(final int length) {
+        final int aligned = (length + 7) & ~7;
+        if (closed || aligned > segmentSize) {
+            dropped.incrementAndGet();
+            return -1;
+        }
+        for (;;) {
+            final long position = tail.get();
+            final int offset = (int) (position % segmentSize);
+            if (offset + aligned <= segmentSize) {
+                if (tail.compareAndSet(position, position + aligned)) {
+                    return position;
+                }
+            } else {
+                final long next = position - offset + segmentSize;
+                if (tail.compareAndSet(position, next + aligned)) {
+                    // the reader skips the rest of the segment
+                    final ByteBuffer buffer = buffer(position);
+                    if (buffer != null) {
+                        buffer.putInt(offset + 4, PADDING);
+                        buffer.putInt(offset, segmentSize - offset);
+                    }
+                    return next;
+                }
+            }
+        }
+    }
+
+    private void publish(final ByteBuffer buffer, final int offset, final int type) {
+        buffer.putLong(offset + 8, epochNanos + (System.nanoTime() - startNanos));
+        buffer.putInt(offset + 4, type);
+    }
+
+    private ByteBuffer buffer(final long position) {
+        try {
+            return segment((int) (position / segmentSize)).buffer;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "could not map log segment, recording stopped", e);
+            closed = true;
+            dropped.incrementAndGet();
+            return null;
+        }
+    }
+
+    private Segment segment(final int index) throws IOException {
+        final int slot = index % WINDOW;
+        for (;;) {
+            final Segment current = segments.get(slot);
+            if (current != null && current.index == index) {
+                return current;
+            }
+            final Segment mapped = new Segment(index, map(index));
+            // several writers may map the same file, they share the pages anyway
+            if (current != null && current.index > index) {
+                return mapped;
+            }
+            if (segments.compareAndSet(slot, current, mapped)) {
+                return mapped;
+            }
+        }
+    }
+
+    private MappedByteBuffer map(final int index) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(new File(directory, direction.segmentName(index)), "rw");
+        try {
+            file.setLength(segmentSize);
+            final MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            return buffer;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Copies the payload, without touching its position, eight bytes at a time.
+     */
+    private static void copy(final ByteBuffer payload, final ByteBuffer buffer, final int offset) {
+        final int start = payload.position();
+        final int size = payload.remaining();
+        final boolean swap = payload.order() != ByteOrder.BIG_ENDIAN;
+        int i = 0;
+        for (; i + 8 <= size; i += 8) {
+            final long value = payload.getLong(start + i);
+            buffer.putLong(offset + i, swap ? Long.reverseBytes(value) : value);
+        }
+        for (; i < size; i++) {
+            buffer.put(offset + i, payload.get(start + i));
+        }
+    }
+
+    private static final class Segment {
+        private final int index;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final int index, final MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+}
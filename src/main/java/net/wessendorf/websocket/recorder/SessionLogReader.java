@@ -0,0 +1,120 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.recorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Iterates the messages of one direction of a log, written by {@link SessionRecorder}.
+ */
+public final class SessionLogReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the recorded messages, in the order they were appended.
+     */
+    public interface Handler {
+
+        /**
+         * @param timestampNanos wall clock time of the recording, in nanoseconds since the epoch
+         * @param binary <code>true</code> for binary, <code>false</code> for UTF-8 encoded text messages
+         * @param payload the payload, only valid during the call
+         */
+        void onMessage(long timestampNanos, boolean binary, ByteBuffer payload);
+    }
+
+    private final File directory;
+    private final Direction direction;
+
+    public SessionLogReader(final File directory, final Direction direction) {
+        this.directory = directory;
+        this.direction = direction;
+    }
+
+    /**
+     * Reads all messages. Records which were claimed, but not completed, are skipped.
+     *
+     * @return the number of messages
+     */
+    public long read(final Handler handler) throws IOException {
+        long count = 0;
+        for (int index = 0; ; index++) {
+            final File file = new File(directory, direction.segmentName(index));
+            if (!file.isFile()) {
+                return count;
+            }
+            final MappedByteBuffer segment = map(file);
+            int offset = 0;
+            while (offset + LogAppender.HEADER <= segment.capacity()) {
+                final int length = segment.getInt(offset);
+                if (length == 0) {
+                    return count;
+                }
+                final int type = segment.getInt(offset + 4);
+                if (type == LogAppender.PADDING) {
+                    break;
+                }
+                if (type == LogAppender.TEXT || type == LogAppender.BINARY) {
+                    final ByteBuffer payload = segment.duplicate();
+                    payload.limit(offset + length).position(offset + LogAppender.HEADER);
+                    handler.onMessage(segment.getLong(offset + 8), type == LogAppender.BINARY, payload.slice());
+                    count++;
+                }
+                offset += (length + 7) & ~7;
+            }
+        }
+    }
+
+    /**
+     * Decodes the payload of a text message.
+     */
+    public static String text(final ByteBuffer payload) {
+        return UTF_8.decode(payload.duplicate()).toString();
+    }
+
+    /**
+     * Deletes the log files of both directions in the given directory.
+     */
+    static void delete(final File directory) throws IOException {
+        for (Direction direction : Direction.values()) {
+            for (int index = 0; ; index++) {
+                final File file = new File(directory, direction.segmentName(index));
+                if (!file.isFile()) {
+                    break;
+                }
+                if (!file.delete()) {
+                    throw new IOException("could not delete " + file);
+                }
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(final File file) throws IOException {
+        final RandomAccessFile log = new RandomAccessFile(file, "r");
+        try {
+            return log.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, log.length());
+        } finally {
+            log.close();
+        }
+    }
+}
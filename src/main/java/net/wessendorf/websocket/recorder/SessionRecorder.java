@@ -0,0 +1,100 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.recorder;
+
+import net.wessendorf.websocket.MessageRecorder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Records the messages of a session into memory-mapped, segmented append logs: one log per
+ * {@link Direction}, written to files named like <code>outbound-00000000.log</code>. Each message
+ * is stored with its wall clock timestamp in nanoseconds, text messages UTF-8 encoded.
+ *
+ * Appending a message does not lock and does not allocate, it is a copy into the mapped file.
+ * Messages larger than a segment are dropped. The logs are read by {@link SessionLogReader}.
+ *
+ * <pre>
+ * SessionRecorder recorder = new SessionRecorder(new File("/tmp/session"));
+ * client.setRecorder(recorder);
+ * </pre>
+ */
+public final class SessionRecorder implements MessageRecorder, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final LogAppender inbound;
+    private final LogAppender outbound;
+
+    public SessionRecorder(final File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory of the log files, created if needed. Existing logs are overwritten.
+     * @param segmentSize size of each log file in bytes, a multiple of eight
+     */
+    public SessionRecorder(final File directory, final int segmentSize) throws IOException {
+        if (segmentSize < LogAppender.HEADER || segmentSize % 8 != 0) {
+            throw new IllegalArgumentException("segment size must be a multiple of 8, of at least " + LogAppender.HEADER);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        SessionLogReader.delete(directory);
+        this.inbound = new LogAppender(directory, Direction.INBOUND, segmentSize);
+        this.outbound = new LogAppender(directory, Direction.OUTBOUND, segmentSize);
+    }
+
+    @Override
+    public void onSend(final String payload) {
+        outbound.appendText(payload);
+    }
+
+    @Override
+    public void onSend(final ByteBuffer payload) {
+        outbound.appendBinary(payload);
+    }
+
+    @Override
+    public void onReceive(final String payload) {
+        inbound.appendText(payload);
+    }
+
+    @Override
+    public void onReceive(final ByteBuffer payload) {
+        inbound.appendBinary(payload);
+    }
+
+    /**
+     * Number of messages, which were not recorded.
+     */
+    public long getDropped() {
+        return inbound.getDropped() + outbound.getDropped();
+    }
+
+    /**
+     * Stops recording and flushes the logs to disk.
+     */
+    @Override
+    public void close() {
+        inbound.close();
+        outbound.close();
+    }
+}
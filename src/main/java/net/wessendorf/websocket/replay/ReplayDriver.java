@@ -0,0 +1,333 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.replay;
+
+import net.wessendorf.websocket.LatencyHistogram;
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.WebSocketHandlerAdapter;
+import net.wessendorf.websocket.recorder.Direction;
+import net.wessendorf.websocket.recorder.SessionLogReader;
+import net.wessendorf.websocket.recorder.SessionRecorder;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the outbound messages of a session, recorded by {@link SessionRecorder}, over a number
+ * of connections, each sending all messages. The gaps between the messages are kept, scaled by the
+ * speed factor, or the messages are sent as fast as possible.
+ *
+ * The latency is measured from the time a message is due until the arrival of the next response, which
+ * fits targets answering every message with exactly one message in order, like echo servers. As the
+ * schedule is the start, a stalled sender, e.g. waiting for a full window, adds to the latencies of the
+ * delayed messages instead of being omitted.
+ *
+ * <pre>
+ * java -cp ... net.wessendorf.websocket.replay.ReplayDriver /tmp/session ws://localhost:9999/echo 10 2
+ * </pre>
+ */
+public class ReplayDriver {
+
+    /**
+     * Speed factor sending the messages without pause.
+     */
+    public static final double MAX_SPEED = Double.POSITIVE_INFINITY;
+
+    // messages written by the container, but not yet completed, per connection
+    private static final int WINDOW = 1024;
+
+    private final File logDirectory;
+    private final URI target;
+
+    private int connections = 1;
+    private double speed = 1;
+    private long responseTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ReplayDriver(final File logDirectory, final URI target) {
+        this.logDirectory = logDirectory;
+        this.target = target;
+    }
+
+    /**
+     * Number of parallel connections, each replaying the whole session.
+     */
+    public void setConnections(final int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("connections must be positive");
+        }
+        this.connections = connections;
+    }
+
+    /**
+     * Speed factor, <code>1</code> keeps the original gaps between the messages, <code>2</code>
+     * halves them, {@link #MAX_SPEED} sends without pause.
+     */
+    public void setSpeed(final double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+    }
+
+    /**
+     * Time to wait for the outstanding responses, after all messages are sent. Use <code>0</code>
+     * for targets which do not answer each message.
+     */
+    public void setResponseTimeout(final long timeout, final TimeUnit unit) {
+        this.responseTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Number of messages sent over all connections.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Number of messages, which could not be sent, over all connections.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Replays the session and waits for the responses.
+     *
+     * @return the latencies of all connections
+     */
+    public LatencyHistogram run() throws IOException, InterruptedException {
+        final List<Message> messages = load();
+        final List<Connection> replays = new ArrayList<Connection>(connections);
+        for (int i = 0; i < connections; i++) {
+            final Connection connection = new Connection(messages);
+            connection.client.connect();
+            replays.add(connection);
+        }
+
+        // all connections start at the same time
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+        final List<Thread> threads = new ArrayList<Thread>(connections);
+        for (int i = 0; i < connections; i++) {
+            final Connection connection = replays.get(i);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    connection.replay(start);
+                }
+            }, "replay-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        final long deadline = System.nanoTime() + responseTimeoutNanos;
+        for (Connection connection : replays) {
+            connection.responses.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            try {
+                connection.client.closeGracefully(1, TimeUnit.SECONDS).get(2, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                connection.client.close();
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Reads the outbound messages, with their offset to the first one.
+     */
+    private List<Message> load() throws IOException {
+        final List<Message> messages = new ArrayList<Message>();
+        new SessionLogReader(logDirectory, Direction.OUTBOUND).read(new SessionLogReader.Handler() {
+            private long first = -1;
+
+            @Override
+            public void onMessage(final long timestampNanos, final boolean binary, final ByteBuffer payload) {
+                if (first < 0) {
+                    first = timestampNanos;
+                }
+                if (binary) {
+                    final byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    messages.add(new Message(timestampNanos - first, null, bytes));
+                } else {
+                    messages.add(new Message(timestampNanos - first, SessionLogReader.text(payload), null));
+                }
+            }
+        });
+        return messages;
+    }
+
+    private static final class Message {
+        private final long offsetNanos;
+        private final String text;
+        private final byte[] binary;
+
+        private Message(final long offsetNanos, final String text, final byte[] binary) {
+            this.offsetNanos = offsetNanos;
+            this.text = text;
+            this.binary = binary;
+        }
+    }
+
+    /**
+     * One connection, replaying all messages.
+     */
+    private final class Connection extends WebSocketHandlerAdapter {
+
+        private final SimpleWebSocketClient client;
+        private final List<Message> messages;
+        // the sends awaiting their response, in order
+        private final Queue<Send> pending = new ConcurrentLinkedQueue<Send>();
+        private final CountDownLatch responses;
+        private final Semaphore window = new Semaphore(WINDOW);
+
+        private Connection(final List<Message> messages) {
+            this.messages = messages;
+            this.responses = new CountDownLatch(messages.size());
+            try {
+                this.client = new SimpleWebSocketClient(target);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException(e);
+            }
+            client.setWebSocketHandler(this);
+        }
+
+        private void replay(final long start) {
+            for (Message message : messages) {
+                final long due;
+                if (speed != MAX_SPEED) {
+                    due = start + (long) (message.offsetNanos / speed);
+                    long remaining;
+                    while ((remaining = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(remaining);
+                    }
+                } else {
+                    due = System.nanoTime();
+                }
+                window.acquireUninterruptibly();
+                final Send send = new Send(due);
+                pending.offer(send);
+                try {
+                    if (message.text != null) {
+                        client.sendText(message.text, send);
+                    } else {
+                        client.sendBinary(ByteBuffer.wrap(message.binary), send);
+                    }
+                } catch (RuntimeException e) {
+                    // e.g. the connection is closed, no response is coming
+                    window.release();
+                    failed(send);
+                    continue;
+                }
+                sent.incrementAndGet();
+            }
+        }
+
+        /**
+         * Counts the failed send, and the response it does not get, unless it was responded already.
+         */
+        private void failed(final Send send) {
+            failed.incrementAndGet();
+            if (pending.remove(send)) {
+                responses.countDown();
+            }
+        }
+
+        @Override
+        public void onMessage(final String message) {
+            responded();
+        }
+
+        @Override
+        public void onMessage(final ByteBuffer message) {
+            responded();
+        }
+
+        private void responded() {
+            final Send send = pending.poll();
+            if (send != null) {
+                latencies.record(System.nanoTime() - send.due);
+                responses.countDown();
+            }
+        }
+
+        /**
+         * A message on its way, removed from the pending sends by identity.
+         */
+        private final class Send implements SendHandler {
+            private final long due;
+
+            private Send(final long due) {
+                this.due = due;
+            }
+
+            @Override
+            public void onResult(final SendResult result) {
+                window.release();
+                if (!result.isOK()) {
+                    failed(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Arguments: log directory, target URI, number of connections (default 1), speed factor
+     * (default 1, or <code>max</code>).
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: ReplayDriver <log directory> <target uri> [connections] [speed|max]");
+            System.exit(1);
+        }
+        final ReplayDriver driver = new ReplayDriver(new File(args[0]), new URI(args[1]));
+        if (args.length > 2) {
+            driver.setConnections(Integer.parseInt(args[2]));
+        }
+        if (args.length > 3) {
+            driver.setSpeed("max".equalsIgnoreCase(args[3]) ? MAX_SPEED : Double.parseDouble(args[3]));
+        }
+
+        final long start = System.nanoTime();
+        final LatencyHistogram latencies = driver.run();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("sent %d messages in %.2f s (%.0f msg/s), %d failed%n", driver.getSent(), seconds, driver.getSent() / seconds, driver.getFailed());
+        System.out.println(latencies);
+    }
+}
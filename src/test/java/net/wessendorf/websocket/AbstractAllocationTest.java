@@ -0,0 +1,280 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Pumps a large number of messages through the echo server and checks the bytes allocated per
+ * message on the client side stay within a budget, after the connection has been warmed up.
+ *
+ * The same messages are pumped through a plain endpoint of the JSR container first: the budget
+ * only covers what the client allocates on top of the container, so it catches regressions where
+ * the client starts to produce garbage per message, independent of the container's own frames
+ * and decoded messages.
+ */
+public abstract class AbstractAllocationTest {
+
+    private static final int WARMUP_MESSAGES = 20000;
+    private static final int MESSAGES = 100000;
+    private static final int WINDOW = 64;
+    private static final int MAX_THREADS = 64;
+
+    /**
+     * Budget of bytes per echoed message (one send and one receive), which the client allocates on
+     * top of the container, can be overridden with the <code>allocation.budget</code> system property.
+     * The measurements differ by a few dozen bytes between runs, the client itself allocates nothing.
+     */
+    private static final long BUDGET = Long.getLong("allocation.budget", 128);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final SendHandler IGNORE = new SendHandler() {
+        @Override
+        public void onResult(SendResult result) {
+        }
+    };
+
+    @Test
+    public void steadyStateTextAllocation() throws Exception {
+        final String payload = "{\"instrument\":\"EURUSD\",\"bid\":1.0921,\"ask\":1.0923}";
+
+        assertThat(overhead(new Traffic() {
+            @Override
+            void send(final Remote remote, final int sequence) {
+                remote.sendText(payload);
+            }
+        })).isLessThanOrEqualTo(BUDGET);
+    }
+
+    @Test
+    public void steadyStateBinaryAllocation() throws Exception {
+        // one buffer per slot of the window, a slot is only reused after its echo arrived
+        final ByteBuffer[] payloads = new ByteBuffer[WINDOW];
+        for (int i = 0; i < WINDOW; i++) {
+            payloads[i] = ByteBuffer.allocate(64);
+        }
+
+        assertThat(overhead(new Traffic() {
+            @Override
+            void send(final Remote remote, final int sequence) {
+                final ByteBuffer payload = payloads[sequence % WINDOW];
+                payload.clear();
+                payload.putLong(sequence).position(payload.limit()).flip();
+                remote.sendBinary(payload);
+            }
+        })).isLessThanOrEqualTo(BUDGET);
+    }
+
+    /**
+     * The bytes per message the client allocates, on top of a plain endpoint of the container.
+     */
+    private long overhead(final Traffic traffic) throws Exception {
+        final long container = containerAllocation(traffic);
+        final long client = clientAllocation(traffic);
+        return client - container;
+    }
+
+    private long containerAllocation(final Traffic traffic) throws Exception {
+        final Pump pump = new Pump(traffic);
+        final Session session = ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(final Session session, final EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        pump.echoed();
+                    }
+                });
+                session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+                    @Override
+                    public void onMessage(ByteBuffer message) {
+                        pump.echoed();
+                    }
+                });
+            }
+        }, ClientEndpointConfig.Builder.create().build(), new URI("ws://localhost:9999/echo"));
+        pump.remote = new Remote() {
+            @Override
+            public void sendText(final String payload) {
+                session.getAsyncRemote().sendText(payload, IGNORE);
+            }
+
+            @Override
+            public void sendBinary(final ByteBuffer payload) {
+                session.getAsyncRemote().sendBinary(payload, IGNORE);
+            }
+        };
+
+        try {
+            return pump.run();
+        } finally {
+            session.close();
+        }
+    }
+
+    private long clientAllocation(final Traffic traffic) throws Exception {
+        final Pump pump = new Pump(traffic);
+        final SimpleWebSocketClient client = new SimpleWebSocketClient(new URI("ws://localhost:9999/echo"));
+        client.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(final String message) {
+                pump.echoed();
+            }
+
+            @Override
+            public void onMessage(final ByteBuffer message) {
+                pump.echoed();
+            }
+        });
+        client.connect();
+        pump.remote = new Remote() {
+            @Override
+            public void sendText(final String payload) {
+                client.sendText(payload);
+            }
+
+            @Override
+            public void sendBinary(final ByteBuffer payload) {
+                client.sendBinary(payload);
+            }
+        };
+
+        try {
+            return pump.run();
+        } finally {
+            client.close();
+        }
+    }
+
+    /**
+     * Sends the message with the given sequence number.
+     */
+    private abstract static class Traffic {
+        abstract void send(Remote remote, int sequence);
+    }
+
+    private interface Remote {
+        void sendText(String payload);
+
+        void sendBinary(ByteBuffer payload);
+    }
+
+    /**
+     * Keeps a window of messages in flight, every echo triggers the next send.
+     */
+    private static final class Pump {
+
+        private final Traffic traffic;
+        private volatile Remote remote;
+        private volatile CountDownLatch done;
+        private volatile int remaining;
+        private int sent;
+
+        // the threads of the current phase: the receiving container threads (a worker pool), plus the
+        // thread that primes the window, with their allocated bytes when they were first seen
+        private final long[] threads = new long[MAX_THREADS];
+        private final long[] allocatedBefore = new long[MAX_THREADS];
+        private int threadCount;
+        private boolean overflow;
+
+        private Pump(final Traffic traffic) {
+            this.traffic = traffic;
+        }
+
+        /**
+         * Primes a window of messages, returning the allocated bytes per message of the measured phase.
+         */
+        long run() throws InterruptedException {
+            phase(WARMUP_MESSAGES);
+            assertThat(done.await(60, TimeUnit.SECONDS)).isTrue();
+
+            phase(MESSAGES);
+            assertThat(done.await(120, TimeUnit.SECONDS)).isTrue();
+
+            return allocatedBytes() / MESSAGES;
+        }
+
+        private void phase(final int messages) {
+            done = new CountDownLatch(1);
+            remaining = messages;
+            synchronized (this) {
+                threadCount = 0;
+                seen();
+                for (int i = 0; i < WINDOW; i++) {
+                    traffic.send(remote, sent++);
+                }
+            }
+        }
+
+        /**
+         * The bytes allocated by the threads of the current phase, since they were first seen.
+         */
+        private synchronized long allocatedBytes() {
+            if (overflow) {
+                fail("more than " + MAX_THREADS + " threads took part, their allocations are not counted");
+            }
+            long sum = 0;
+            for (int i = 0; i < threadCount; i++) {
+                sum += Math.max(0, THREADS.getThreadAllocatedBytes(threads[i]) - allocatedBefore[i]);
+            }
+            return sum;
+        }
+
+        private synchronized void echoed() {
+            seen();
+            final int left = --remaining;
+            if (left == 0) {
+                done.countDown();
+            } else if (left >= WINDOW) {
+                traffic.send(remote, sent++);
+            }
+        }
+
+        private void seen() {
+            final long id = Thread.currentThread().getId();
+            for (int i = 0; i < threadCount; i++) {
+                if (threads[i] == id) {
+                    return;
+                }
+            }
+            if (threadCount == threads.length) {
+                overflow = true;
+                return;
+            }
+            allocatedBefore[threadCount] = THREADS.getThreadAllocatedBytes(id);
+            threads[threadCount++] = id;
+        }
+    }
+}
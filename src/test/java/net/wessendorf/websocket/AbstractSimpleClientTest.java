@@ -17,14 +17,32 @@ package net.wessendorf.websocket;
 
 import org.junit.Test;
 
+import javax.management.ObjectName;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public abstract class AbstractSimpleClientTest {
 
@@ -151,6 +169,550 @@ public abstract class AbstractSimpleClientTest {
        assertThat(receivedCloseCode.get()).isEqualTo(1000);
     }
 
+    @Test
+    public void tracedTextEcho() throws InterruptedException, URISyntaxException {
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        final URI securedEndpointURL = new URI("ws://localhost:9999/echo");
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient(securedEndpointURL);
+
+        final AtomicReference<Boolean> connected = new AtomicReference<Boolean>();
+        final AtomicReference<Integer> sentSize = new AtomicReference<Integer>();
+        final AtomicReference<Integer> receivedSize = new AtomicReference<Integer>();
+        final AtomicReference<Integer> tracedCloseCode = new AtomicReference<Integer>();
+
+        spc.setTracer(new WebSocketTracerAdapter() {
+            @Override
+            public void onConnect(URI uri, long durationNanos, boolean success) {
+                connected.set(success);
+            }
+
+            @Override
+            public void onSend(URI uri, boolean binary, int payloadSize, long durationNanos) {
+                sentSize.set(payloadSize);
+            }
+
+            @Override
+            public void onReceive(URI uri, boolean binary, int payloadSize) {
+                receivedSize.set(payloadSize);
+            }
+
+            @Override
+            public void onClose(URI uri, int closeCode, long sessionDurationNanos) {
+                tracedCloseCode.set(closeCode);
+            }
+        });
+
+        spc.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onOpen() {
+                spc.sendText("Hello"); // ship it!
+            }
+
+            @Override
+            public void onClose(int closeCode, String reason) {
+                closeLatch.countDown();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                spc.close();
+            }
+        });
+
+        spc.connect();
+
+        // wait until the close was called
+        closeLatch.await(2000, TimeUnit.MILLISECONDS);
+
+        assertThat(connected.get()).isTrue();
+        assertThat(sentSize.get()).isEqualTo(5);
+        assertThat(receivedSize.get()).isEqualTo(5);
+        assertThat(tracedCloseCode.get()).isEqualTo(1000);
+    }
+
+    @Test
+    public void statisticsOfTextEcho() throws Exception {
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        final URI securedEndpointURL = new URI("ws://localhost:9999/echo");
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient(securedEndpointURL);
+
+        final ObjectName clientMBeans = new ObjectName("net.wessendorf.websocket:type=SimpleWebSocketClient,*");
+        final AtomicReference<Integer> registeredMBeans = new AtomicReference<Integer>();
+
+        spc.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onOpen() {
+                spc.ping();
+                spc.sendText("Hello"); // ship it!
+            }
+
+            @Override
+            public void onClose(int closeCode, String reason) {
+                closeLatch.countDown();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                registeredMBeans.set(ManagementFactory.getPlatformMBeanServer().queryNames(clientMBeans, null).size());
+                spc.close();
+            }
+        });
+
+        spc.connect();
+
+        // wait until the close was called
+        closeLatch.await(2000, TimeUnit.MILLISECONDS);
+
+        final WebSocketClientStatisticsMXBean statistics = spc.getStatistics();
+        assertThat(statistics.getMessagesSent()).isEqualTo(1);
+        assertThat(statistics.getBytesSent()).isEqualTo(5);
+        assertThat(statistics.getMessagesReceived()).isEqualTo(1);
+        assertThat(statistics.getBytesReceived()).isEqualTo(5);
+        assertThat(statistics.getPendingSends()).isEqualTo(0);
+        assertThat(statistics.getLastRoundTripNanos()).isGreaterThanOrEqualTo(0);
+
+        final HandshakeTimings handshake = spc.getHandshakeTimings();
+        assertThat(handshake.getDnsNanos()).isGreaterThanOrEqualTo(0);
+        assertThat(handshake.getUpgradeNanos()).isGreaterThan(0);
+        assertThat(handshake.getTotalNanos()).isGreaterThanOrEqualTo(handshake.getDnsNanos() + handshake.getUpgradeNanos());
+        assertThat(statistics.getLastConnectNanos()).isEqualTo(handshake.getTotalNanos());
+
+        // aggregate and the client itself:
+        assertThat(registeredMBeans.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void gracefulCloseDeliversPendingSends() throws Exception {
+        final URI securedEndpointURL = new URI("ws://localhost:9999/echo");
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient(securedEndpointURL);
+
+        final CountDownLatch echoLatch = new CountDownLatch(100);
+        spc.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                echoLatch.countDown();
+            }
+        });
+
+        spc.connect();
+        for (int i = 0; i < 100; i++) {
+            spc.sendText("Hello " + i);
+        }
+
+        final Future<Integer> closed = spc.closeGracefully(2000, TimeUnit.MILLISECONDS);
+
+        try {
+            spc.sendText("too late");
+            fail("sends must be rejected while closing");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertThat(closed.get(3000, TimeUnit.MILLISECONDS)).isEqualTo(1000);
+        assertThat(spc.getReadyState()).isEqualTo(ReadyState.CLOSED);
+
+        // the container may dispatch the last echoes after the close, but none is lost
+        assertThat(echoLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void closingClientRejectsBeforeThrottling() throws Exception {
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final RateLimiter limiter = RateLimiter.messages(1, 1, RateLimiter.Policy.DELAY);
+        spc.setRateLimiters(limiter);
+
+        spc.connect();
+        spc.sendText("Hello");
+        final Future<Integer> closed = spc.closeGracefully(2000, TimeUnit.MILLISECONDS);
+
+        try {
+            spc.sendText("too late");
+            fail("sends must be rejected while closing");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // the rejected send was neither delayed nor took from the limiter
+        assertThat(limiter.getThrottledNanos()).isZero();
+        assertThat(closed.get(3000, TimeUnit.MILLISECONDS)).isEqualTo(1000);
+    }
+
+    @Test
+    public void gracefulCloseInProgressIsShared() throws Exception {
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        spc.connect();
+        spc.sendText("Hello");
+
+        final Future<Integer> closed = spc.closeGracefully(2000, TimeUnit.MILLISECONDS);
+        assertThat(spc.closeGracefully(10, TimeUnit.MILLISECONDS)).isSameAs(closed);
+        assertThat(closed.get(3000, TimeUnit.MILLISECONDS)).isEqualTo(1000);
+    }
+
+    @Test
+    public void gracefulCloseWithoutConnection() throws Exception {
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+
+        final Future<Integer> closed = spc.closeGracefully(2000, TimeUnit.MILLISECONDS);
+        assertThat(closed.isDone()).isTrue();
+        assertThat(closed.get()).isEqualTo(1006);
+    }
+
+    @Test
+    public void fragmentedBinaryEcho() throws Exception {
+        final URI securedEndpointURL = new URI("ws://localhost:9999/echo");
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient(securedEndpointURL);
+        spc.setFragmentSize(1024);
+
+        final CountDownLatch echoLatch = new CountDownLatch(1);
+        final AtomicReference<ByteBuffer> receivedPayload = new AtomicReference<ByteBuffer>();
+        spc.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(ByteBuffer message) {
+                final ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+                copy.put(message).flip();
+                receivedPayload.set(copy);
+                echoLatch.countDown();
+            }
+        });
+
+        final ByteBuffer payload = ByteBuffer.allocate(32 * 1024);
+        while (payload.hasRemaining()) {
+            payload.putInt(payload.position());
+        }
+        payload.flip();
+
+        spc.connect();
+        spc.sendBinary(payload.duplicate());
+        spc.ping();
+
+        assertThat(echoLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(receivedPayload.get()).isEqualTo(payload);
+
+        assertThat(spc.closeGracefully(2000, TimeUnit.MILLISECONDS).get()).isEqualTo(1000);
+        assertThat(spc.getStatistics().getLastRoundTripNanos()).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    public void builtClientClosesWhenIdle() throws Exception {
+        final CountDownLatch echoLatch = new CountDownLatch(1);
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .maxIdleTimeout(300, TimeUnit.MILLISECONDS)
+                .maxBinaryMessageBufferSize(64 * 1024)
+                .containerBuffers(4096, true)
+                .header("X-Client", "simple-websocket-client")
+                .handler(new WebSocketHandlerAdapter() {
+                    @Override
+                    public void onMessage(ByteBuffer message) {
+                        echoLatch.countDown();
+                    }
+
+                    @Override
+                    public void onClose(int closeCode, String reason) {
+                        closeLatch.countDown();
+                    }
+                })
+                .build();
+
+        spc.connect();
+        // binary, the UTF-8 validation of the Netty server fails on text frames split across reads
+        spc.sendBinary(ByteBuffer.allocate(10000));
+
+        assertThat(echoLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(spc.getSubprotocol()).isEmpty();
+
+        // no further traffic
+        assertThat(closeLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(spc.getReadyState()).isEqualTo(ReadyState.CLOSED);
+    }
+
+    @Test
+    public void latencyProbesAreEchoed() throws Exception {
+        final int probes = 20;
+        final CountDownLatch echoLatch = new CountDownLatch(1);
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final LatencyProbe probe = new LatencyProbe(spc, new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(ByteBuffer message) {
+                echoLatch.countDown();
+            }
+        });
+
+        spc.connect();
+        for (int i = 0; i < probes; i++) {
+            probe.probe();
+        }
+        spc.sendBinary(ByteBuffer.wrap(new byte[LatencyProbe.LENGTH]));
+
+        // probes are not passed on
+        assertThat(echoLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (probe.getReceived() < probes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        spc.close();
+
+        assertThat(probe.getReceived()).isEqualTo(probes);
+        assertThat(probe.getLost()).isZero();
+        assertThat(probe.getReordered()).isZero();
+        assertThat(probe.getRoundTrip().getCount()).isEqualTo(probes);
+        assertThat(probe.getServer().getCount()).isEqualTo(stampsProbes() ? probes : 0);
+    }
+
+    @Test
+    public void scheduledProbesCountSchedulerDelay() throws Exception {
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final LatencyProbe probe = new LatencyProbe(spc, null);
+
+        spc.connect();
+        probe.start(10, TimeUnit.MILLISECONDS);
+        // stalls the scheduler, the probes due meanwhile are sent late
+        ClientScheduler.get().execute(new Runnable() {
+            @Override
+            public void run() {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+            }
+        });
+
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (probe.getReceived() < 30 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        probe.stop();
+        spc.close();
+
+        assertThat(probe.getReceived()).isGreaterThanOrEqualTo(30);
+        assertThat(probe.getRoundTrip().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    /**
+     * Whether the echo server stamps its receive and send time into latency probes.
+     */
+    protected boolean stampsProbes() {
+        return false;
+    }
+
+    @Test
+    public void overloadClosesWithTryAgainLater() throws Exception {
+        final CountDownLatch closeLatch = new CountDownLatch(1);
+        final AtomicReference<Integer> closeCode = new AtomicReference<Integer>();
+        // the handler does not get to run, until the connection is closed
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final LoadSheddingWebSocketHandler handler = new LoadSheddingWebSocketHandler(spc, new WebSocketHandlerAdapter() {
+            @Override
+            public void onClose(int code, String reason) {
+                closeCode.set(code);
+                closeLatch.countDown();
+            }
+        }, 2, LoadSheddingWebSocketHandler.Policy.CLOSE_TRY_AGAIN_LATER, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        spc.connect();
+        for (int i = 0; i < 5; i++) {
+            spc.sendText("m" + i);
+        }
+
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (spc.getReadyState() != ReadyState.CLOSED && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the close event may reach the handler after the ready state changed
+        while (closeLatch.getCount() > 0 && System.currentTimeMillis() < deadline + 2000) {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            Thread.sleep(10);
+        }
+
+        assertThat(closeLatch.getCount()).isZero();
+        assertThat(closeCode.get()).isEqualTo(1013);
+        assertThat(handler.getShedCount()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void resumedSessionDropsReplays() throws Exception {
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final Set<String> extracted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch replayLatch = new CountDownLatch(1);
+        final AtomicReference<CountDownLatch> openLatch = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+        final AtomicReference<CountDownLatch> syncLatch = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+        final AtomicReference<CountDownLatch> closeLatch = new AtomicReference<CountDownLatch>(new CountDownLatch(1));
+
+        // messages are delivered one after the other: once the unsequenced "sync" message is
+        // extracted, the messages sent before it are processed, or dropped
+        final SessionResumption resumption = SessionResumption.queryParameter("from", new SequenceExtractor() {
+            @Override
+            public long sequenceOf(String message) {
+                if ("sync".equals(message)) {
+                    syncLatch.get().countDown();
+                    return -1;
+                }
+                // the sequence of a replayed message is extracted a second time, right before it is dropped
+                if (!extracted.add(message)) {
+                    replayLatch.countDown();
+                }
+                return Long.parseLong(message.substring(0, message.indexOf(':')));
+            }
+
+            @Override
+            public long sequenceOf(ByteBuffer message) {
+                return -1;
+            }
+        });
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .resumption(resumption)
+                .handler(new WebSocketHandlerAdapter() {
+                    @Override
+                    public void onOpen() {
+                        openLatch.get().countDown();
+                    }
+
+                    @Override
+                    public void onMessage(String message) {
+                        if (!"sync".equals(message)) {
+                            received.add(message);
+                        }
+                    }
+
+                    @Override
+                    public void onClose(int closeCode, String reason) {
+                        closeLatch.get().countDown();
+                    }
+                })
+                .build();
+
+        spc.connect();
+        assertThat(openLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        spc.sendText("0:a");
+        spc.sendText("1:b");
+        spc.sendText("sync");
+        assertThat(syncLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(resumption.getLastSequence()).isEqualTo(1);
+        spc.close();
+        assertThat(closeLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+
+        // the echo server replays the last message
+        openLatch.set(new CountDownLatch(1));
+        syncLatch.set(new CountDownLatch(1));
+        closeLatch.set(new CountDownLatch(1));
+        spc.connect();
+        assertThat(openLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        spc.sendText("1:b");
+        spc.sendText("2:c");
+        spc.sendText("sync");
+        assertThat(replayLatch.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(syncLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        spc.close();
+        assertThat(closeLatch.get().await(2000, TimeUnit.MILLISECONDS)).isTrue();
+
+        assertThat(received).containsExactly("0:a", "1:b", "2:c");
+        assertThat(resumption.getDuplicates()).isEqualTo(1);
+        assertThat(resumption.getLastSequence()).isEqualTo(2);
+    }
+
+    @Test
+    public void interceptorsAreSwappedWhileConnected() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .interceptors(new WebSocketInterceptorAdapter() {
+                    @Override
+                    public void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+                        context.sendText("[" + payload + "]", priority, completion);
+                    }
+                })
+                .handler(new WebSocketHandlerAdapter() {
+                    @Override
+                    public void onMessage(String message) {
+                        received.add(message);
+                    }
+                })
+                .build();
+
+        spc.connect();
+        spc.sendText("a");
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("[a]");
+
+        spc.setInterceptors(new WebSocketInterceptorAdapter() {
+            @Override
+            public void onMessage(String message, InterceptorContext context) {
+                context.fireMessage(message.toUpperCase());
+            }
+        });
+        spc.sendText("b");
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("B");
+
+        spc.setInterceptors();
+        spc.sendText("c");
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("c");
+        spc.close();
+    }
+
+    @Test
+    public void batchedEcho() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+        final BatchingInterceptor batching = new BatchingInterceptor(1024, 10, TimeUnit.MILLISECONDS);
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .interceptors(batching)
+                .handler(new WebSocketHandlerAdapter() {
+                    @Override
+                    public void onMessage(String message) {
+                        received.add(message);
+                    }
+                })
+                .build();
+
+        spc.connect();
+        for (int i = 0; i < 50; i++) {
+            spc.sendText("m" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("m" + i);
+        }
+        spc.close();
+
+        assertThat(batching.getBatchedMessages()).isEqualTo(50);
+        assertThat(spc.getStatistics().getMessagesSent()).isEqualTo(batching.getBatches());
+    }
+
+    @Test
+    public void gracefulCloseSendsPendingBatch() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(1024, 1, TimeUnit.HOURS);
+        final AtomicInteger completed = new AtomicInteger();
+        final SendHandler completion = new SendHandler() {
+            @Override
+            public void onResult(SendResult result) {
+                if (result.isOK()) {
+                    completed.incrementAndGet();
+                }
+            }
+        };
+
+        final SimpleWebSocketClient spc = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .interceptors(batching)
+                .handler(new WebSocketHandlerAdapter())
+                .build();
+
+        spc.connect();
+        for (int i = 0; i < 10; i++) {
+            spc.sendText("m" + i, SendPriority.NORMAL, completion);
+        }
+
+        assertThat(spc.closeGracefully(2000, TimeUnit.MILLISECONDS).get()).isEqualTo(1000);
+        assertThat(completed.get()).isEqualTo(10);
+        assertThat(spc.getStatistics().getMessagesSent()).isEqualTo(1);
+    }
+
     @Test
     public void getURI() throws URISyntaxException {
         final URI securedEndpointURL = new URI("ws://localhost:9999/echo");
@@ -0,0 +1,217 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchingInterceptorTest {
+
+    private final List<String> received = new ArrayList<String>();
+    private final List<Throwable> errors = new ArrayList<Throwable>();
+    private final BlockingQueue<Object> sent = new LinkedBlockingQueue<Object>();
+    private SimpleWebSocketClient client;
+
+    // stands in for the container
+    private final WebSocketInterceptor wire = new WebSocketInterceptorAdapter() {
+        @Override
+        public void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+            sent.add(payload);
+        }
+
+        @Override
+        public void sendBinary(ByteBuffer payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+            // the buffer of a batch is reused once it was written
+            sent.add(SerialDrain.copy(payload));
+            if (completion != null) {
+                completion.onResult(new SendResult());
+            }
+        }
+    };
+
+    @Before
+    public void setup() throws Exception {
+        client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        client.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                received.add("binary:" + message.remaining());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+        });
+    }
+
+    private InterceptorPipeline pipeline(final BatchingInterceptor batching) {
+        return new InterceptorPipeline(client, new WebSocketInterceptor[] {wire, batching});
+    }
+
+    @Test
+    public void batchRoundTrip() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(1024, 1, TimeUnit.HOURS);
+        final InterceptorPipeline pipeline = pipeline(batching);
+        final AtomicInteger completed = new AtomicInteger();
+        final SendHandler completion = new SendHandler() {
+            @Override
+            public void onResult(SendResult result) {
+                completed.incrementAndGet();
+            }
+        };
+
+        pipeline.sendText(pipeline.last(), "h\u00e9llo", SendPriority.NORMAL, completion);
+        pipeline.sendBinary(pipeline.last(), ByteBuffer.allocate(3), SendPriority.NORMAL, completion);
+        pipeline.sendText(pipeline.last(), "", SendPriority.NORMAL, null);
+        assertThat(sent).isEmpty();
+
+        batching.flush();
+
+        final ByteBuffer batch = (ByteBuffer) sent.poll();
+        assertThat(sent).isEmpty();
+        assertThat(batch.remaining()).isEqualTo(4 + 5 + 6 + 5 + 3 + 5);
+        assertThat(completed.get()).isEqualTo(2);
+        assertThat(batching.getBatches()).isEqualTo(1);
+        assertThat(batching.getBatchedMessages()).isEqualTo(3);
+
+        pipeline.fireMessage(0, batch);
+
+        assertThat(received).containsExactly("h\u00e9llo", "binary:3", "");
+    }
+
+    @Test
+    public void flushWhenFull() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(4 + 2 * (5 + 10), 1, TimeUnit.HOURS);
+        final InterceptorPipeline pipeline = pipeline(batching);
+
+        for (int i = 0; i < 5; i++) {
+            pipeline.sendText(pipeline.last(), "0123456789", SendPriority.NORMAL, null);
+        }
+
+        // two batches are full, the fifth message waits
+        assertThat(sent).hasSize(2);
+        assertThat(batching.getBatchedMessages()).isEqualTo(4);
+    }
+
+    @Test
+    public void flushAfterLinger() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(1024, 10, TimeUnit.MILLISECONDS);
+        final InterceptorPipeline pipeline = pipeline(batching);
+
+        pipeline.sendText(pipeline.last(), "a", SendPriority.NORMAL, null);
+
+        assertThat(sent.poll(2000, TimeUnit.MILLISECONDS)).isInstanceOf(ByteBuffer.class);
+        assertThat(batching.getBatchedMessages()).isEqualTo(1);
+    }
+
+    @Test
+    public void urgentAndLargeMessagesBypass() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(32, 1, TimeUnit.HOURS);
+        final InterceptorPipeline pipeline = pipeline(batching);
+
+        pipeline.sendText(pipeline.last(), "a", SendPriority.NORMAL, null);
+        pipeline.sendText(pipeline.last(), "b", SendPriority.URGENT, null);
+        pipeline.sendText(pipeline.last(), "c", SendPriority.NORMAL, null);
+        pipeline.sendText(pipeline.last(), "0123456789012345678901234567890123456789", SendPriority.NORMAL, null);
+
+        // pending batches go first, to keep the order
+        assertThat(sent.poll()).isInstanceOf(ByteBuffer.class);
+        assertThat(sent.poll()).isEqualTo("b");
+        assertThat(sent.poll()).isInstanceOf(ByteBuffer.class);
+        assertThat(sent.poll()).isEqualTo("0123456789012345678901234567890123456789");
+    }
+
+    @Test
+    public void bypassedMessagesStartingWithMagic() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(32, 1, TimeUnit.HOURS);
+        final InterceptorPipeline pipeline = pipeline(batching);
+        final ByteBuffer magic = ByteBuffer.allocate(8);
+        magic.putInt(BatchingInterceptor.MAGIC).putInt(42).flip();
+        final ByteBuffer large = ByteBuffer.allocate(64);
+        large.putInt(BatchingInterceptor.MAGIC).flip().limit(64);
+
+        pipeline.sendBinary(pipeline.last(), magic, SendPriority.URGENT, null);
+        pipeline.sendBinary(pipeline.last(), large, SendPriority.NORMAL, null);
+
+        // each one is wrapped into a batch, the peer gets back the original message
+        pipeline.fireMessage(0, (ByteBuffer) sent.poll());
+        pipeline.fireMessage(0, (ByteBuffer) sent.poll());
+        assertThat(received).containsExactly("binary:8", "binary:64");
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    public void plainBinaryMessagesPassThrough() throws Exception {
+        final InterceptorPipeline pipeline = pipeline(new BatchingInterceptor(1024, 1, TimeUnit.HOURS));
+
+        pipeline.fireMessage(0, ByteBuffer.allocate(2));
+        pipeline.fireMessage(0, ByteBuffer.allocate(8));
+
+        assertThat(received).containsExactly("binary:2", "binary:8");
+    }
+
+    @Test
+    public void malformedBatch() throws Exception {
+        final InterceptorPipeline pipeline = pipeline(new BatchingInterceptor(1024, 1, TimeUnit.HOURS));
+        final ByteBuffer batch = ByteBuffer.allocate(4 + 6 + 5);
+        batch.putInt(BatchingInterceptor.MAGIC).put(BatchingInterceptor.TEXT).putInt(1).put((byte) 'a')
+                .put(BatchingInterceptor.TEXT).putInt(100).flip();
+
+        pipeline.fireMessage(0, batch);
+
+        // nothing of a malformed batch is delivered
+        assertThat(received).isEmpty();
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0)).isInstanceOf(IllegalStateException.class).hasMessageContaining("invalid length at 10");
+    }
+
+    @Test
+    public void buffersAreReused() throws Exception {
+        final BatchingInterceptor batching = new BatchingInterceptor(4 + 5 + 1, 1, TimeUnit.HOURS);
+        final List<ByteBuffer> written = new ArrayList<ByteBuffer>();
+        final InterceptorPipeline recording = new InterceptorPipeline(client, new WebSocketInterceptor[] {new WebSocketInterceptorAdapter() {
+            @Override
+            public void sendBinary(ByteBuffer payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+                written.add(payload);
+                completion.onResult(new SendResult());
+            }
+        }, batching});
+
+        recording.sendText(recording.last(), "a", SendPriority.NORMAL, null);
+        recording.sendText(recording.last(), "b", SendPriority.NORMAL, null);
+
+        assertThat(written).hasSize(2);
+        assertThat(written.get(1)).isSameAs(written.get(0));
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConflatingWebSocketHandlerTest {
+
+    // runs the drain only when asked to, simulating a consumer that falls behind
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final List<String> received = new ArrayList<String>();
+    private ConflatingWebSocketHandler handler;
+
+    @Before
+    public void setup() {
+        handler = new ConflatingWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                received.add("binary:" + message.get());
+            }
+
+            @Override
+            public void onClose(int closeCode, String reason) {
+                received.add("closed:" + closeCode);
+            }
+        }, new ConflationKeyExtractor() {
+            @Override
+            public Object keyOf(String message) {
+                return message.substring(0, message.indexOf('='));
+            }
+
+            @Override
+            public Object keyOf(ByteBuffer message) {
+                return "binary";
+            }
+        }, executor);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void latestValuePerKey() {
+        handler.onMessage("EURUSD=1.0921");
+        handler.onMessage("USDJPY=149.10");
+        handler.onMessage("EURUSD=1.0922");
+        handler.onMessage("EURUSD=1.0923");
+
+        runTasks();
+
+        assertThat(received).containsExactly("EURUSD=1.0923", "USDJPY=149.10");
+        assertThat(handler.getConflatedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void keyPendingAgainAfterDelivery() {
+        handler.onMessage("EURUSD=1.0921");
+        runTasks();
+        handler.onMessage("EURUSD=1.0922");
+        runTasks();
+
+        assertThat(received).containsExactly("EURUSD=1.0921", "EURUSD=1.0922");
+        assertThat(handler.getConflatedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void binaryMessagesAreCopied() {
+        final ByteBuffer pooled = ByteBuffer.allocate(1);
+        pooled.put((byte) 1).flip();
+        handler.onMessage(pooled);
+
+        // the container reuses its buffer
+        pooled.clear();
+        pooled.put((byte) 2).flip();
+
+        runTasks();
+
+        assertThat(received).containsExactly("binary:1");
+    }
+
+    @Test
+    public void closeAfterPendingMessages() {
+        handler.onMessage("EURUSD=1.0921");
+        handler.onClose(1000, null);
+
+        runTasks();
+
+        assertThat(received).containsExactly("EURUSD=1.0921", "closed:1000");
+    }
+
+    @Test
+    public void failingHandlerDoesNotStopTheDrain() {
+        final ConflatingWebSocketHandler failing = new ConflatingWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onError(Throwable throwable) {
+                throw new IllegalStateException("error handling failed", throwable);
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+        }, new ConflationKeyExtractor() {
+            @Override
+            public Object keyOf(String message) {
+                return message;
+            }
+
+            @Override
+            public Object keyOf(ByteBuffer message) {
+                return "binary";
+            }
+        }, executor);
+
+        failing.onError(new RuntimeException("connection lost"));
+        failing.onMessage("EURUSD=1.0921");
+        runTasks();
+        failing.onMessage("EURUSD=1.0922");
+        runTasks();
+
+        assertThat(received).containsExactly("EURUSD=1.0921", "EURUSD=1.0922");
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.SendHandler;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InterceptorPipelineTest {
+
+    private final List<String> events = new ArrayList<String>();
+    private SimpleWebSocketClient client;
+
+    @Before
+    public void setup() throws Exception {
+        client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        client.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                events.add("handler:" + message);
+            }
+
+            @Override
+            public void onMessage(ByteBuffer message) {
+                events.add("handler:binary");
+            }
+        });
+    }
+
+    private WebSocketInterceptor named(final String name) {
+        return new WebSocketInterceptorAdapter() {
+            @Override
+            public void onMessage(String message, InterceptorContext context) {
+                events.add(name + ":" + message);
+                context.fireMessage(message + name);
+            }
+
+            @Override
+            public void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+                events.add(name + ":" + payload);
+                context.sendText(payload + name, priority, completion);
+            }
+        };
+    }
+
+    // stands in for the container
+    private final WebSocketInterceptor wire = new WebSocketInterceptorAdapter() {
+        @Override
+        public void sendText(String payload, SendPriority priority, SendHandler completion, InterceptorContext context) {
+            events.add("wire:" + payload + ":" + priority);
+        }
+    };
+
+    @Test
+    public void inboundFirstToLast() {
+        final InterceptorPipeline pipeline = new InterceptorPipeline(client, new WebSocketInterceptor[] {named("a"), named("b")});
+
+        pipeline.fireMessage(0, "m");
+
+        assertThat(events).containsExactly("a:m", "b:ma", "handler:mab");
+    }
+
+    @Test
+    public void outboundLastToFirst() {
+        final InterceptorPipeline pipeline = new InterceptorPipeline(client, new WebSocketInterceptor[] {wire, named("a"), named("b")});
+
+        pipeline.sendText(pipeline.last(), "m", SendPriority.HIGH, null);
+
+        assertThat(events).containsExactly("b:m", "a:mb", "wire:mba:HIGH");
+    }
+
+    @Test
+    public void consumedMessage() {
+        final InterceptorPipeline pipeline = new InterceptorPipeline(client, new WebSocketInterceptor[] {
+                new WebSocketInterceptorAdapter() {
+                    @Override
+                    public void onMessage(String message, InterceptorContext context) {
+                        if (!message.startsWith("secret")) {
+                            context.fireMessage(message);
+                        }
+                    }
+                }, named("a")});
+
+        pipeline.fireMessage(0, "secret");
+        pipeline.fireMessage(0, "public");
+        pipeline.fireMessage(0, ByteBuffer.allocate(1));
+
+        assertThat(events).containsExactly("a:public", "handler:publica", "handler:binary");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void noNullInterceptors() {
+        client.setInterceptors(named("a"), null);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(1000);
+        assertThat(histogram.getMax()).isEqualTo(1000000);
+        assertThat(histogram.getMean()).isEqualTo(500500.0);
+        assertThat(histogram.getValueAtPercentile(50)).isBetween(500000L, 500000L + 500000L / 32);
+        assertThat(histogram.getValueAtPercentile(99)).isBetween(990000L, 990000L + 990000L / 32);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(1000000);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        long previous = -1;
+        for (long value : new long[] {0, 1, 63, 64, 65, 127, 128, 1000000007L, Long.MAX_VALUE}) {
+            final int index = LatencyHistogram.indexOf(value);
+            assertThat(LatencyHistogram.upperBoundOf(index)).isGreaterThanOrEqualTo(value);
+            assertThat((long) index).isGreaterThanOrEqualTo(previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void addAndReset() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        first.record(10);
+        second.record(-5);
+        second.record(20);
+
+        first.add(second);
+        assertThat(first.getCount()).isEqualTo(3);
+        assertThat(first.getMax()).isEqualTo(20);
+        assertThat(first.getValueAtPercentile(0)).isEqualTo(0);
+
+        first.reset();
+        assertThat(first.getCount()).isEqualTo(0);
+        assertThat(first.getValueAtPercentile(50)).isEqualTo(0);
+    }
+}
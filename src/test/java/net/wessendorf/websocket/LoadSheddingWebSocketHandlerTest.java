@@ -0,0 +1,138 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadSheddingWebSocketHandlerTest {
+
+    // runs the drain only when asked to, simulating a consumer that falls behind
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final List<String> received = new ArrayList<String>();
+    private final WebSocketHandler delegate = new WebSocketHandlerAdapter() {
+        @Override
+        public void onMessage(String message) {
+            received.add(message);
+        }
+
+        @Override
+        public void onMessage(ByteBuffer message) {
+            received.add("binary:" + message.get());
+        }
+
+        @Override
+        public void onClose(int closeCode, String reason) {
+            received.add("closed:" + closeCode);
+        }
+    };
+
+    private LoadSheddingWebSocketHandler handler(final int capacity, final LoadSheddingWebSocketHandler.Policy policy) throws Exception {
+        return new LoadSheddingWebSocketHandler(new SimpleWebSocketClient("ws://localhost:9999/echo"),
+                delegate, capacity, policy, executor);
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        final LoadSheddingWebSocketHandler handler = handler(2, LoadSheddingWebSocketHandler.Policy.DROP_NEWEST);
+        for (int i = 0; i < 5; i++) {
+            handler.onMessage("m" + i);
+        }
+        assertThat(handler.getQueueSize()).isEqualTo(2);
+
+        runTasks();
+
+        assertThat(received).containsExactly("m0", "m1");
+        assertThat(handler.getShedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        final LoadSheddingWebSocketHandler handler = handler(2, LoadSheddingWebSocketHandler.Policy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            handler.onMessage("m" + i);
+        }
+
+        runTasks();
+
+        assertThat(received).containsExactly("m3", "m4");
+        assertThat(handler.getShedCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void sampleOnceHalfFull() throws Exception {
+        final LoadSheddingWebSocketHandler handler = handler(4, LoadSheddingWebSocketHandler.Policy.SAMPLE);
+        handler.setSampleRate(3);
+        for (int i = 0; i < 10; i++) {
+            handler.onMessage("m" + i);
+        }
+
+        runTasks();
+
+        // m0 and m1 fill half of the queue, then every third message is taken, until it is full
+        assertThat(received).containsExactly("m0", "m1", "m2", "m5");
+        assertThat(handler.getShedCount()).isEqualTo(6);
+    }
+
+    @Test
+    public void binaryMessagesAreCopied() throws Exception {
+        final LoadSheddingWebSocketHandler handler = handler(2, LoadSheddingWebSocketHandler.Policy.DROP_NEWEST);
+        final ByteBuffer pooled = ByteBuffer.allocate(1);
+        pooled.put((byte) 1).flip();
+        handler.onMessage(pooled);
+
+        // the container reuses its buffer
+        pooled.clear();
+        pooled.put((byte) 2).flip();
+
+        runTasks();
+
+        assertThat(received).containsExactly("binary:1");
+    }
+
+    @Test
+    public void closeAfterPendingMessages() throws Exception {
+        final LoadSheddingWebSocketHandler handler = handler(2, LoadSheddingWebSocketHandler.Policy.DROP_NEWEST);
+        handler.onMessage("m0");
+        handler.onClose(1000, null);
+
+        runTasks();
+
+        assertThat(received).containsExactly("m0", "closed:1000");
+    }
+}
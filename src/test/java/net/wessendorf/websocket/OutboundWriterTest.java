@@ -0,0 +1,171 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutboundWriterTest {
+
+    private static final SendHandler IGNORE = new SendHandler() {
+        @Override
+        public void onResult(SendResult result) {
+        }
+    };
+
+    // runs the drain only when asked to, so that all lanes are filled up front
+    private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+    };
+
+    private final List<String> written = new ArrayList<String>();
+    private Session session;
+
+    @Before
+    public void recordingSession() {
+        final RemoteEndpoint.Basic remote = proxy(RemoteEndpoint.Basic.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("sendText".equals(method.getName())) {
+                    written.add((String) args[0]);
+                } else if ("sendPing".equals(method.getName())) {
+                    written.add("ping");
+                }
+                return null;
+            }
+        });
+        session = proxy(Session.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return "getBasicRemote".equals(method.getName()) ? remote : null;
+            }
+        });
+    }
+
+    @Test
+    public void weightedLanes() {
+        final OutboundWriter writer = new OutboundWriter(executor, 0, new int[] {3, 2, 1}, IGNORE);
+        writer.attach(session);
+        for (int i = 0; i < 4; i++) {
+            writer.sendText("low", SendPriority.LOW, IGNORE);
+            writer.sendText("normal", SendPriority.NORMAL, IGNORE);
+            writer.sendText("high", SendPriority.HIGH, IGNORE);
+        }
+        writer.sendText("urgent", SendPriority.URGENT, IGNORE);
+        writer.sendPing(ByteBuffer.allocate(8));
+        runTasks();
+
+        assertThat(written).containsExactly(
+                "ping", "urgent",
+                "high", "high", "high", "normal", "normal", "low",
+                "high", "normal", "normal", "low",
+                "low", "low");
+    }
+
+    @Test
+    public void urgentMessagesOvertakeLanes() {
+        final OutboundWriter writer = new OutboundWriter(executor, 0, new int[] {1, 1, 1}, new SendHandler() {
+            @Override
+            public void onResult(SendResult result) {
+            }
+        });
+        writer.attach(session);
+        writer.sendText("normal", SendPriority.NORMAL, new SendHandler() {
+            @Override
+            public void onResult(SendResult result) {
+                // queued while the writer is busy, sent before the remaining low priority messages
+                writer.sendText("urgent", SendPriority.URGENT, IGNORE);
+            }
+        });
+        writer.sendText("low", SendPriority.LOW, IGNORE);
+        writer.sendText("low", SendPriority.LOW, IGNORE);
+        runTasks();
+
+        assertThat(written).containsExactly("normal", "urgent", "low", "low");
+    }
+
+    @Test
+    public void fifoWithoutWeights() {
+        final OutboundWriter writer = new OutboundWriter(executor, 0, null, IGNORE);
+        writer.attach(session);
+        writer.sendText("1", SendPriority.LOW, IGNORE);
+        writer.sendText("2", SendPriority.URGENT, IGNORE);
+        writer.sendText("3", SendPriority.HIGH, IGNORE);
+        runTasks();
+
+        assertThat(written).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    public void surrogatePairsAreNotSplit() {
+        final OutboundWriter writer = new OutboundWriter(executor, 1, null, IGNORE);
+        writer.attach(session);
+        writer.sendText("a\uD83D\uDE00b", SendPriority.NORMAL, IGNORE);
+        runTasks();
+
+        assertThat(written).containsExactly("a", "\uD83D\uDE00", "b");
+    }
+
+    @Test
+    public void failingCompletionDoesNotStopTheWriter() {
+        final OutboundWriter writer = new OutboundWriter(executor, 0, null, IGNORE);
+        writer.attach(session);
+        writer.sendText("1", SendPriority.NORMAL, new SendHandler() {
+            @Override
+            public void onResult(SendResult result) {
+                throw new IllegalStateException("callback failed");
+            }
+        });
+        writer.sendText("2", SendPriority.NORMAL, IGNORE);
+        runTasks();
+        writer.sendText("3", SendPriority.NORMAL, IGNORE);
+        runTasks();
+
+        assertThat(written).containsExactly("1", "2", "3");
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(OutboundWriterTest.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+}
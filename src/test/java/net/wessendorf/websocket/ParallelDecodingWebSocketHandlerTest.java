@@ -0,0 +1,153 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ParallelDecodingWebSocketHandlerTest {
+
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    private final List<Object> received = new CopyOnWriteArrayList<Object>();
+    private final CountDownLatch closeLatch = new CountDownLatch(1);
+    private final AtomicInteger decoding = new AtomicInteger();
+    private final AtomicInteger maxDecoding = new AtomicInteger();
+
+    // takes a random time, so later messages are often decoded first
+    private final MessageDecoder<Integer> decoder = new MessageDecoder<Integer>() {
+        @Override
+        public Integer decode(String message) throws Exception {
+            final int concurrent = decoding.incrementAndGet();
+            int max;
+            while (concurrent > (max = maxDecoding.get()) && !maxDecoding.compareAndSet(max, concurrent)) {
+                // retry
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+                if (message.equals("invalid")) {
+                    throw new NumberFormatException(message);
+                }
+                return message.equals("null") ? null : Integer.valueOf(message);
+            } finally {
+                decoding.decrementAndGet();
+            }
+        }
+
+        @Override
+        public Integer decode(ByteBuffer message) throws Exception {
+            return -message.getInt();
+        }
+    };
+
+    private final DecodedMessageHandler<Integer> handler = new DecodedMessageHandler<Integer>() {
+        @Override
+        public void onOpen() {
+            received.add("open");
+        }
+
+        @Override
+        public void onClose(int closeCode, String reason) {
+            received.add("closed:" + closeCode);
+            closeLatch.countDown();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            received.add(throwable.getClass().getSimpleName());
+        }
+
+        @Override
+        public void onMessage(Integer message) {
+            received.add(String.valueOf(message));
+        }
+    };
+
+    @After
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void deliveredInArrivalOrder() throws Exception {
+        final ParallelDecodingWebSocketHandler<Integer> stage = new ParallelDecodingWebSocketHandler<Integer>(decoder, handler, pool, 16);
+
+        stage.onOpen();
+        for (int i = 0; i < 200; i++) {
+            stage.onMessage(Integer.toString(i));
+        }
+        stage.onClose(1000, null);
+
+        assertThat(closeLatch.await(5000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(received).hasSize(202);
+        assertThat(received.get(0)).isEqualTo("open");
+        for (int i = 0; i < 200; i++) {
+            assertThat(received.get(i + 1)).isEqualTo(Integer.toString(i));
+        }
+        assertThat(received.get(201)).isEqualTo("closed:1000");
+        assertThat(maxDecoding.get()).isGreaterThan(1);
+    }
+
+    @Test
+    public void failuresInArrivalOrder() throws Exception {
+        final ParallelDecodingWebSocketHandler<Integer> stage = new ParallelDecodingWebSocketHandler<Integer>(decoder, handler, pool, 4);
+
+        final ByteBuffer binary = ByteBuffer.allocate(4);
+        binary.putInt(7).flip();
+
+        stage.onMessage("1");
+        stage.onMessage("invalid");
+        stage.onMessage("null");
+        stage.onMessage(binary);
+        // the container reuses its buffer
+        binary.clear();
+        binary.putInt(8);
+        stage.onClose(1001, null);
+
+        assertThat(closeLatch.await(5000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(received).containsExactly("1", "NumberFormatException", "null", "-7", "closed:1001");
+    }
+
+    @Test
+    public void rejectedDecodingIsReported() throws Exception {
+        final ParallelDecodingWebSocketHandler<Integer> stage = new ParallelDecodingWebSocketHandler<Integer>(decoder, handler, pool, 1);
+        pool.shutdown();
+
+        stage.onMessage("1");
+        // the slot of the rejected message is free again
+        stage.onMessage("2");
+        stage.onClose(1000, null);
+
+        assertThat(closeLatch.await(5000, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(received).containsExactly("RejectedExecutionException", "RejectedExecutionException", "closed:1000");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightTooLarge() {
+        new ParallelDecodingWebSocketHandler<Integer>(decoder, handler, pool, (1 << 30) + 1);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RateLimiterTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void rejectsBeyondBurst() {
+        final RateLimiter limiter = RateLimiter.messages(10, 5, RateLimiter.Policy.REJECT);
+        final long now = System.nanoTime();
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(limiter.reserve(100, now)).isEqualTo(0);
+        }
+        assertThat(limiter.reserve(100, now)).isEqualTo(-1);
+        assertThat(limiter.getRejectedCount()).isEqualTo(1);
+
+        // one message every 100 ms
+        assertThat(limiter.reserve(100, now + 100 * MILLI)).isEqualTo(0);
+        assertThat(limiter.reserve(100, now + 100 * MILLI)).isEqualTo(-1);
+    }
+
+    @Test
+    public void delaysBeyondBurst() {
+        final RateLimiter limiter = RateLimiter.messages(10, 2, RateLimiter.Policy.DELAY);
+        final long now = System.nanoTime();
+
+        assertThat(limiter.reserve(1, now)).isEqualTo(0);
+        assertThat(limiter.reserve(1, now)).isEqualTo(0);
+        assertThat(limiter.reserve(1, now)).isEqualTo(100 * MILLI);
+        assertThat(limiter.reserve(1, now)).isEqualTo(200 * MILLI);
+        assertThat(limiter.getThrottledNanos()).isEqualTo(300 * MILLI);
+        assertThat(limiter.getRejectedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void limitsBytes() {
+        final RateLimiter limiter = RateLimiter.bytes(1000, 1000, RateLimiter.Policy.REJECT);
+        final long now = System.nanoTime();
+
+        assertThat(limiter.reserve(600, now)).isEqualTo(0);
+        assertThat(limiter.reserve(600, now)).isEqualTo(-1);
+        assertThat(limiter.reserve(400, now)).isEqualTo(0);
+        assertThat(limiter.reserve(500, now + 500 * MILLI)).isEqualTo(0);
+        assertThat(limiter.reserve(2000, now + 10000 * MILLI)).isEqualTo(-1);
+    }
+
+    @Test
+    public void rejectedBytesReleaseMessages() {
+        final RateLimiter limiter = new RateLimiter(10, 1, 1000, 100, RateLimiter.Policy.REJECT);
+        final long now = System.nanoTime();
+
+        assertThat(limiter.reserve(200, now)).isEqualTo(-1);
+        assertThat(limiter.reserve(50, now)).isEqualTo(0);
+    }
+
+    @Test
+    public void releaseGivesBackCapacity() {
+        final RateLimiter limiter = RateLimiter.messages(10, 1, RateLimiter.Policy.REJECT);
+        final long now = System.nanoTime();
+
+        assertThat(limiter.reserve(1, now)).isEqualTo(0);
+        limiter.release(1);
+        assertThat(limiter.reserve(1, now)).isEqualTo(0);
+    }
+}
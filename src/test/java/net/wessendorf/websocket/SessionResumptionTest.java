@@ -0,0 +1,142 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionResumptionTest {
+
+    private static final SequenceExtractor PREFIX = new SequenceExtractor() {
+        @Override
+        public long sequenceOf(String message) {
+            return Long.parseLong(message.substring(0, message.indexOf(':')));
+        }
+
+        @Override
+        public long sequenceOf(ByteBuffer message) {
+            return -1;
+        }
+    };
+
+    @Test
+    public void dropsDuplicates() {
+        final SessionResumption resumption = SessionResumption.header("X-Resume-From", PREFIX);
+
+        assertThat(resumption.accept(0)).isTrue();
+        assertThat(resumption.accept(1)).isTrue();
+        assertThat(resumption.accept(5)).isTrue();
+        assertThat(resumption.accept(1)).isFalse();
+        assertThat(resumption.accept(5)).isFalse();
+
+        // gaps are accepted once, when they arrive late
+        assertThat(resumption.accept(3)).isTrue();
+        assertThat(resumption.accept(3)).isFalse();
+        assertThat(resumption.getDuplicates()).isEqualTo(3);
+    }
+
+    @Test
+    public void windowSlides() {
+        final SessionResumption resumption = SessionResumption.header("X-Resume-From", PREFIX);
+
+        assertThat(resumption.accept(10)).isTrue();
+        assertThat(resumption.accept(10 + SessionResumption.WINDOW - 1)).isTrue();
+        // still inside the window
+        assertThat(resumption.accept(10)).isFalse();
+        assertThat(resumption.accept(11)).isTrue();
+
+        assertThat(resumption.accept(10 + SessionResumption.WINDOW + 200)).isTrue();
+        // the bits of skipped numbers are cleared, older numbers are outside the window
+        assertThat(resumption.accept(10 + SessionResumption.WINDOW + 100)).isTrue();
+        assertThat(resumption.accept(11)).isFalse();
+
+        // a jump beyond the window clears it entirely
+        assertThat(resumption.accept(100000)).isTrue();
+        assertThat(resumption.accept(100000 - 1)).isTrue();
+        assertThat(resumption.accept(100000 - SessionResumption.WINDOW)).isFalse();
+    }
+
+    @Test
+    public void dropsDuplicatesInsideBatches() throws Exception {
+        final SessionResumption resumption = SessionResumption.header("X-Resume-From", PREFIX);
+        final List<String> received = new ArrayList<String>();
+        final SimpleWebSocketClient client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        client.setResumption(resumption);
+        client.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+        });
+        final InterceptorPipeline pipeline = new InterceptorPipeline(client,
+                new WebSocketInterceptor[] {new BatchingInterceptor(1024, 1, TimeUnit.HOURS)});
+
+        // the sequence numbers are taken from the single messages, not from the batch
+        pipeline.fireMessage(0, batch("1:a", "2:b"));
+        pipeline.fireMessage(0, batch("2:b", "3:c"));
+
+        assertThat(received).containsExactly("1:a", "2:b", "3:c");
+        assertThat(resumption.getDuplicates()).isEqualTo(1);
+        assertThat(resumption.getLastSequence()).isEqualTo(3);
+    }
+
+    @Test
+    public void resumeHeaderOnceProcessed() {
+        final SessionResumption resumption = SessionResumption.header("X-Resume-From", PREFIX);
+        final Map<String, List<String>> headers = Collections.emptyMap();
+
+        assertThat(resumption.resumeHeaders(headers)).isEmpty();
+
+        resumption.processed(41);
+        resumption.processed(40);
+
+        assertThat(resumption.getLastSequence()).isEqualTo(41);
+        assertThat(resumption.resumeHeaders(headers).get("X-Resume-From")).containsExactly("41");
+    }
+
+    @Test
+    public void resumeQueryParameter() throws Exception {
+        final SessionResumption resumption = SessionResumption.queryParameter("from", PREFIX);
+        final URI uri = new URI("ws://localhost:9999/echo");
+
+        assertThat(resumption.resumeURI(uri)).isEqualTo(uri);
+
+        resumption.processed(7);
+
+        assertThat(resumption.resumeURI(uri)).isEqualTo(new URI("ws://localhost:9999/echo?from=7"));
+        assertThat(resumption.resumeURI(new URI("ws://localhost:9999/echo?topic=a%20b")))
+                .isEqualTo(new URI("ws://localhost:9999/echo?topic=a%20b&from=7"));
+    }
+
+    private static ByteBuffer batch(final String... messages) {
+        final ByteBuffer batch = ByteBuffer.allocate(256);
+        batch.putInt(BatchingInterceptor.MAGIC);
+        for (String message : messages) {
+            batch.put(BatchingInterceptor.TEXT).putInt(message.length()).put(message.getBytes());
+        }
+        batch.flip();
+        return batch;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StatisticsTest {
+
+    private static final AggregateStatistics AGGREGATE = Statistics.AGGREGATE;
+
+    @Test
+    public void aggregateSumsConnectedAndRetiredClients() throws Exception {
+        final ClientStatistics first = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/first"));
+        final ClientStatistics second = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/second"));
+        final long before = AGGREGATE.getMessagesSent();
+
+        AGGREGATE.attach(first);
+        AGGREGATE.attach(second);
+        first.messageSent(10);
+        second.messageSent(20);
+        second.messageSent(20);
+        assertThat(AGGREGATE.getMessagesSent() - before).isEqualTo(3);
+
+        AGGREGATE.detach(second);
+        assertThat(AGGREGATE.getMessagesSent() - before).isEqualTo(3);
+
+        // reconnected, the retired counts must not be summed twice
+        AGGREGATE.attach(second);
+        second.messageSent(20);
+        assertThat(AGGREGATE.getMessagesSent() - before).isEqualTo(4);
+
+        AGGREGATE.detach(first);
+        AGGREGATE.detach(second);
+        assertThat(AGGREGATE.getMessagesSent() - before).isEqualTo(4);
+    }
+
+    @Test
+    public void textCountsEncodedBytes() throws Exception {
+        final ClientStatistics client = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/echo"));
+
+        client.messageSent("Gr\u00fc\u00dfe \u20ac");
+        client.messageReceived("\ud83d\ude00");
+
+        assertThat(client.getBytesSent()).isEqualTo(11);
+        assertThat(client.getBytesReceived()).isEqualTo(4);
+    }
+
+    @Test
+    public void resetOfClientKeepsAggregate() throws Exception {
+        final ClientStatistics client = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/echo"));
+        final long before = AGGREGATE.getBytesReceived();
+
+        AGGREGATE.attach(client);
+        client.messageReceived(100);
+        client.reset();
+        client.messageReceived(50);
+
+        assertThat(client.getBytesReceived()).isEqualTo(50);
+        assertThat(AGGREGATE.getBytesReceived() - before).isEqualTo(150);
+        AGGREGATE.detach(client);
+        assertThat(AGGREGATE.getBytesReceived() - before).isEqualTo(150);
+    }
+
+    @Test
+    public void resetOfAggregateKeepsClients() throws Exception {
+        final ClientStatistics client = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/echo"));
+
+        AGGREGATE.attach(client);
+        client.error();
+        AGGREGATE.reset();
+        client.error();
+
+        assertThat(client.getErrorCount()).isEqualTo(2);
+        assertThat(AGGREGATE.getErrorCount()).isEqualTo(1);
+        AGGREGATE.detach(client);
+    }
+
+    @Test
+    public void disabledAggregateStopsCollection() throws Exception {
+        final ClientStatistics client = new ClientStatistics(new SimpleWebSocketClient("ws://localhost:9999/echo"));
+
+        AGGREGATE.setEnabled(false);
+        try {
+            client.reconnected();
+        } finally {
+            AGGREGATE.setEnabled(true);
+        }
+        client.reconnected();
+
+        assertThat(client.getReconnectCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.netty;
+
+import net.wessendorf.websocket.AbstractAllocationTest;
+import net.wessendorf.websocket.netty.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+
+public class NettyAllocationTest extends AbstractAllocationTest {
+
+    private WebSocketServer server;
+
+    @Before
+    public void bootNetty() throws Exception {
+        server = new WebSocketServer(9999);
+        server.run();
+    }
+
+    @After
+    public void shutdownNetty() {
+       server.shutdown();
+    }
+
+}
@@ -35,4 +35,8 @@ public class NettyContainerTest extends AbstractSimpleClientTest {
        server.shutdown();
     }
 
+    @Override
+    protected boolean stampsProbes() {
+        return true;
+    }
 }
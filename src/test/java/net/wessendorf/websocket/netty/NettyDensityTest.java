@@ -0,0 +1,99 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.netty;
+
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.netty.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Opens a large number of idle loopback connections in high density mode and checks the retained
+ * heap per connection stays within a budget.
+ *
+ * The echo server runs in the same JVM, so the budget covers both ends of a connection: the client
+ * with the Undertow session and channel, and the Netty channel of the server. 4 to 6.5 KB are
+ * measured per connection. By default 100 connections are opened, which keeps the test quick. Every
+ * connection takes two file descriptors, for runs with tens of thousands of connections raise
+ * <code>ulimit -n</code> and the <code>density.connections</code> system property.
+ */
+public class NettyDensityTest {
+
+    private static final int CONNECTIONS = Integer.getInteger("density.connections", 100);
+    private static final int WARMUP_CONNECTIONS = Math.max(CONNECTIONS / 10, 50);
+
+    /**
+     * Budget of retained bytes per connection, can be overridden with the <code>density.budget</code>
+     * system property.
+     */
+    private static final long BUDGET = Long.getLong("density.budget", 8192);
+
+    private WebSocketServer server;
+    private final List<SimpleWebSocketClient> clients = new ArrayList<SimpleWebSocketClient>();
+
+    @Before
+    public void bootNetty() throws Exception {
+        server = new WebSocketServer(9999);
+        server.run();
+    }
+
+    @After
+    public void shutdownNetty() {
+        for (SimpleWebSocketClient client : clients) {
+            client.close();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void retainedHeapPerIdleConnection() throws Exception {
+        // loads the classes and fills the pools of container and server
+        connect(WARMUP_CONNECTIONS);
+
+        final long before = usedHeap();
+        connect(CONNECTIONS);
+        final long perConnection = (usedHeap() - before) / CONNECTIONS;
+
+        assertThat(perConnection).isLessThanOrEqualTo(BUDGET);
+    }
+
+    private void connect(final int connections) throws Exception {
+        for (int i = 0; i < connections; i++) {
+            final SimpleWebSocketClient client = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                    .highDensity()
+                    .build();
+            client.connect();
+            clients.add(client);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        // the handshakes complete asynchronously on the server side
+        Thread.sleep(500);
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
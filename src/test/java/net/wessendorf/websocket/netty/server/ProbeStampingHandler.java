@@ -0,0 +1,43 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.netty.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import net.wessendorf.websocket.LatencyProbe;
+
+/**
+ * Stamps the send time into outbound latency probes, when they are written on the event loop,
+ * right before the frame encoder copies them. It is stateless, one instance serves all channels.
+ */
+@ChannelHandler.Sharable
+public class ProbeStampingHandler extends ChannelOutboundHandlerAdapter {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof BinaryWebSocketFrame) {
+            final ByteBuf content = ((BinaryWebSocketFrame) msg).content();
+            if (WebSocketServerHandler.isProbe(content)) {
+                content.setLong(content.readerIndex() + LatencyProbe.SERVER_SENT_OFFSET, LatencyProbe.now());
+            }
+        }
+        ctx.write(msg, promise);
+    }
+}
@@ -21,6 +21,9 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 
+import java.io.IOException;
+import java.net.ServerSocket;
+
 /**
  * Taken from the Netty.io project's examples
  */
@@ -29,6 +32,7 @@ public class WebSocketServer {
     private final int port;
     private EventLoopGroup bossGroup;
     EventLoopGroup workerGroup;
+    private Channel channel;
 
     public WebSocketServer(int port) {
         this.port = port;
@@ -42,11 +46,33 @@ public class WebSocketServer {
                     .channel(NioServerSocketChannel.class)
                     .childHandler(new WebSocketServerInitializer());
 
-            Channel ch = b.bind(port).sync().channel();
+            channel = b.bind(port).sync().channel();
     }
 
     public void shutdown() {
+        // release the port right away, the event loops shut down gracefully
+        channel.close().syncUninterruptibly();
+        awaitPortReleased();
         workerGroup.shutdownGracefully();
         bossGroup.shutdownGracefully();
     }
+
+    /**
+     * The selector closes the listening socket asynchronously, wait until the port can be bound again.
+     */
+    private void awaitPortReleased() {
+        for (int i = 0; i < 50; i++) {
+            try {
+                new ServerSocket(port).close();
+                return;
+            } catch (IOException e) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
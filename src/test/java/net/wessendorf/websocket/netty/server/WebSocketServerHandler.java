@@ -33,6 +33,7 @@ import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
 import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
 import io.netty.util.CharsetUtil;
+import net.wessendorf.websocket.LatencyProbe;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -111,11 +112,22 @@ public class WebSocketServerHandler extends SimpleChannelInboundHandler<Object>
         }
         if (frame instanceof BinaryWebSocketFrame) {
             ByteBuf request = frame.content().retain();
+            if (isProbe(request)) {
+                // the send time is stamped by the ProbeStampingHandler
+                request.setLong(request.readerIndex() + LatencyProbe.SERVER_RECEIVED_OFFSET, LatencyProbe.now());
+            }
             ctx.channel().write(new BinaryWebSocketFrame(request));
             return;
         }
     }
 
+    /**
+     * Latency probes get the server's receive and send time stamped in.
+     */
+    static boolean isProbe(ByteBuf message) {
+        return message.readableBytes() == LatencyProbe.LENGTH && message.getInt(message.readerIndex()) == LatencyProbe.MAGIC;
+    }
+
     private static void sendHttpResponse(
             ChannelHandlerContext ctx, FullHttpRequest req, FullHttpResponse res) {
         // Generate an error page if response getStatus code is not OK (200).
@@ -20,16 +20,22 @@ import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
 
 /**
  * Taken from the Netty.io project's examples
  */
 public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel> {
+    private static final ProbeStampingHandler PROBE_STAMPING = new ProbeStampingHandler();
+
     @Override
     public void initChannel(SocketChannel ch) throws Exception {
         ChannelPipeline pipeline = ch.pipeline();
         pipeline.addLast("codec-http", new HttpServerCodec());
         pipeline.addLast("aggregator", new HttpObjectAggregator(65536));
+        pipeline.addLast("ws-aggregator", new WebSocketFrameAggregator(1024 * 1024));
+        // outbound frames pass it before the encoder, which the handshake inserts in place of the HTTP codec
+        pipeline.addLast("probe-stamping", PROBE_STAMPING);
         pipeline.addLast("handler", new WebSocketServerHandler());
     }
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.reactive;
+
+import net.wessendorf.websocket.RateLimiter;
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.netty.server.WebSocketServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WebSocketPublisherTest {
+
+    private WebSocketServer server;
+
+    @Before
+    public void bootNetty() throws Exception {
+        server = new WebSocketServer(9999);
+        server.run();
+    }
+
+    @After
+    public void shutdownNetty() {
+        server.shutdown();
+    }
+
+    @Test
+    public void echoWithDemand() throws Exception {
+        final SimpleWebSocketClient client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final WebSocketPublisher publisher = new WebSocketPublisher(client, 16);
+
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        publisher.textMessages().subscribe(new Subscriber<String>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+                s.request(10);
+            }
+
+            @Override
+            public void onNext(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+                completed.countDown();
+            }
+        });
+
+        client.connect();
+
+        // ship 100 messages through the subscriber, from a publisher of a plain range
+        range(100).subscribe(WebSocketSubscriber.text(client, 8));
+
+        Thread.sleep(500);
+        assertThat(received).hasSize(10);
+
+        subscription.get().request(90);
+        waitFor(received, 100);
+        assertThat(received).hasSize(100);
+        assertThat(received.get(99)).isEqualTo("message 99");
+
+        client.closeGracefully(2000, TimeUnit.MILLISECONDS).get();
+        assertThat(completed.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void requestLimitsDelivery() throws Exception {
+        final SimpleWebSocketClient client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final WebSocketPublisher publisher = new WebSocketPublisher(client, 64);
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+        publisher.textMessages().subscribe(collect(received, subscription));
+
+        client.connect();
+        subscription.get().request(3);
+        for (int i = 0; i < 20; i++) {
+            client.sendText("message " + i);
+        }
+
+        Thread.sleep(300);
+        assertThat(received).containsExactly("message 0", "message 1", "message 2");
+
+        subscription.get().request(2);
+        Thread.sleep(100);
+        assertThat(received).hasSize(5);
+
+        subscription.get().request(Long.MAX_VALUE);
+        waitFor(received, 20);
+        assertThat(received).hasSize(20);
+        assertThat(received.get(19)).isEqualTo("message 19");
+        client.close();
+    }
+
+    @Test
+    public void rejectedSendCancelsSubscription() throws Exception {
+        final SimpleWebSocketClient client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        final RateLimiter limiter = RateLimiter.messages(1, 5, RateLimiter.Policy.REJECT);
+        client.setRateLimiters(limiter);
+        final WebSocketPublisher publisher = new WebSocketPublisher(client, 64);
+        final List<String> received = new CopyOnWriteArrayList<String>();
+        final AtomicReference<Subscription> subscription = new AtomicReference<Subscription>();
+        publisher.textMessages().subscribe(collect(received, subscription));
+
+        client.connect();
+        subscription.get().request(Long.MAX_VALUE);
+
+        // the sixth send is over the burst, it must not throw out of onNext
+        range(100).subscribe(WebSocketSubscriber.text(client, 8));
+
+        Thread.sleep(300);
+        assertThat(received).hasSize(5);
+        assertThat(limiter.getRejectedCount()).isEqualTo(1);
+        client.close();
+    }
+
+    private static Subscriber<String> collect(final List<String> received, final AtomicReference<Subscription> subscription) {
+        return new Subscriber<String>() {
+            @Override
+            public void onSubscribe(Subscription s) {
+                subscription.set(s);
+            }
+
+            @Override
+            public void onNext(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+
+    private static void waitFor(final List<?> list, final int size) throws InterruptedException {
+        for (int i = 0; i < 100 && list.size() < size; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * Simple synchronous publisher of "message 0" to "message n-1".
+     */
+    private static Publisher<String> range(final int n) {
+        return new Publisher<String>() {
+            @Override
+            public void subscribe(final Subscriber<? super String> subscriber) {
+                subscriber.onSubscribe(new Subscription() {
+                    private int next;
+                    private long requested;
+                    private boolean emitting;
+                    private boolean completed;
+
+                    @Override
+                    public synchronized void request(long demand) {
+                        requested += demand;
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                        while (requested > 0 && next < n) {
+                            requested--;
+                            subscriber.onNext("message " + next++);
+                        }
+                        emitting = false;
+                        if (next == n && !completed) {
+                            completed = true;
+                            subscriber.onComplete();
+                        }
+                    }
+
+                    @Override
+                    public synchronized void cancel() {
+                        next = n;
+                    }
+                });
+            }
+        };
+    }
+}
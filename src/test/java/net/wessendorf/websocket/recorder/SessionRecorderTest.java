@@ -0,0 +1,148 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.recorder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SessionRecorderTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("session", "");
+        directory.delete();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        SessionLogReader.delete(directory);
+        directory.delete();
+    }
+
+    @Test
+    public void recordsBothDirections() throws IOException {
+        final SessionRecorder recorder = new SessionRecorder(directory);
+        recorder.onSend("Hello");
+        recorder.onSend(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+        recorder.onReceive("Gr\u00fc\u00dfe \u20ac \ud83d\ude00");
+        recorder.close();
+
+        assertThat(read(Direction.OUTBOUND)).containsExactly("Hello", "[1, 2, 3]");
+        assertThat(read(Direction.INBOUND)).containsExactly("Gr\u00fc\u00dfe \u20ac \ud83d\ude00");
+    }
+
+    @Test
+    public void rollsOverSegments() throws IOException {
+        final SessionRecorder recorder = new SessionRecorder(directory, 64);
+        for (int i = 0; i < 10; i++) {
+            // header and payload take 24 bytes, two records per segment
+            recorder.onSend("message" + i);
+        }
+        recorder.onSend("this message is too large for a single segment, so it is dropped");
+        recorder.close();
+
+        final List<String> messages = read(Direction.OUTBOUND);
+        assertThat(messages).hasSize(10);
+        assertThat(messages.get(9)).isEqualTo("message9");
+        assertThat(new File(directory, Direction.OUTBOUND.segmentName(4)).isFile()).isTrue();
+        assertThat(recorder.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    public void skipsIncompleteRecords() throws IOException {
+        final SessionRecorder recorder = new SessionRecorder(directory);
+        recorder.onSend("first");
+        recorder.onSend("second");
+        recorder.onSend("third");
+        recorder.close();
+
+        // a writer which claimed the second record, but failed before completing it
+        final RandomAccessFile segment = new RandomAccessFile(new File(directory, Direction.OUTBOUND.segmentName(0)), "rw");
+        try {
+            segment.seek(24 + 4);
+            segment.writeInt(0);
+        } finally {
+            segment.close();
+        }
+
+        assertThat(read(Direction.OUTBOUND)).containsExactly("first", "third");
+    }
+
+    @Test
+    public void keepsPayloadPositionAndOrder() throws IOException {
+        final SessionRecorder recorder = new SessionRecorder(directory);
+        final ByteBuffer payload = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 20; i++) {
+            payload.put((byte) i);
+        }
+        payload.position(2);
+        recorder.onReceive(payload);
+        recorder.close();
+
+        assertThat(payload.position()).isEqualTo(2);
+        assertThat(read(Direction.INBOUND)).containsExactly("[2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19]");
+    }
+
+    @Test
+    public void timestampsAreOrdered() throws IOException {
+        final SessionRecorder recorder = new SessionRecorder(directory);
+        final long start = System.currentTimeMillis() * 1000000L;
+        recorder.onSend("first");
+        recorder.onSend("second");
+        recorder.close();
+
+        final List<Long> timestamps = new ArrayList<Long>();
+        new SessionLogReader(directory, Direction.OUTBOUND).read(new SessionLogReader.Handler() {
+            @Override
+            public void onMessage(long timestampNanos, boolean binary, ByteBuffer payload) {
+                timestamps.add(timestampNanos);
+            }
+        });
+        assertThat(timestamps.get(0)).isGreaterThanOrEqualTo(start - 1000000L);
+        assertThat(timestamps.get(1)).isGreaterThanOrEqualTo(timestamps.get(0));
+    }
+
+    private List<String> read(final Direction direction) throws IOException {
+        final List<String> messages = new ArrayList<String>();
+        new SessionLogReader(directory, direction).read(new SessionLogReader.Handler() {
+            @Override
+            public void onMessage(long timestampNanos, boolean binary, ByteBuffer payload) {
+                if (binary) {
+                    final byte[] bytes = new byte[payload.remaining()];
+                    payload.get(bytes);
+                    messages.add(Arrays.toString(bytes));
+                } else {
+                    messages.add(SessionLogReader.text(payload));
+                }
+            }
+        });
+        return messages;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.replay;
+
+import net.wessendorf.websocket.LatencyHistogram;
+import net.wessendorf.websocket.netty.server.WebSocketServer;
+import net.wessendorf.websocket.recorder.SessionRecorder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReplayDriverTest {
+
+    private WebSocketServer server;
+    private File session;
+
+    @Before
+    public void bootNettyAndRecord() throws Exception {
+        server = new WebSocketServer(9999);
+        server.run();
+
+        session = File.createTempFile("session", "");
+        session.delete();
+        final SessionRecorder recorder = new SessionRecorder(session, 1024 * 1024);
+        for (int i = 0; i < 5; i++) {
+            recorder.onSend("message " + i);
+            recorder.onSend(ByteBuffer.wrap(new byte[] {(byte) i}));
+            recorder.onReceive("ignored, not replayed");
+            Thread.sleep(50);
+        }
+        recorder.close();
+    }
+
+    @After
+    public void shutdownNetty() {
+        server.shutdown();
+        for (File file : session.listFiles()) {
+            file.delete();
+        }
+        session.delete();
+    }
+
+    @Test
+    public void replayAtMaxSpeed() throws Exception {
+        final ReplayDriver driver = new ReplayDriver(session, new URI("ws://localhost:9999/echo"));
+        driver.setConnections(3);
+        driver.setSpeed(ReplayDriver.MAX_SPEED);
+
+        final long start = System.nanoTime();
+        final LatencyHistogram latencies = driver.run();
+
+        assertThat(driver.getSent()).isEqualTo(30);
+        assertThat(latencies.getCount()).isEqualTo(30);
+        assertThat(latencies.getValueAtPercentile(50)).isGreaterThan(0);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    public void replayKeepsGaps() throws Exception {
+        final ReplayDriver driver = new ReplayDriver(session, new URI("ws://localhost:9999/echo"));
+
+        final long start = System.nanoTime();
+        final LatencyHistogram latencies = driver.run();
+
+        // four gaps of 50 ms between the first and the last message
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(latencies.getCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void failedSendsAreCounted() throws Exception {
+        final File oversized = File.createTempFile("oversized", "");
+        oversized.delete();
+        final SessionRecorder recorder = new SessionRecorder(oversized, 1024 * 1024);
+        // beyond the frame size limit of the server, which closes the connection
+        recorder.onSend(ByteBuffer.allocate(128 * 1024));
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(50);
+            recorder.onSend("message " + i);
+        }
+        recorder.close();
+
+        try {
+            final ReplayDriver driver = new ReplayDriver(oversized, new URI("ws://localhost:9999/echo"));
+            driver.setResponseTimeout(500, TimeUnit.MILLISECONDS);
+
+            final LatencyHistogram latencies = driver.run();
+
+            assertThat(driver.getFailed()).isEqualTo(4);
+            assertThat(latencies.getCount()).isZero();
+        } finally {
+            for (File file : oversized.listFiles()) {
+                file.delete();
+            }
+            oversized.delete();
+        }
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.After;
 import org.junit.Before;
 
 import java.io.IOException;
+import java.net.ServerSocket;
 import java.util.logging.Logger;
 
 import static io.undertow.Handlers.path;
@@ -69,7 +70,17 @@ public class UndertowContainerTest extends AbstractSimpleClientTest {
     }
 
     @After
-    public void shutdownUndertow() {
+    public void shutdownUndertow() throws InterruptedException {
         server.stop();
+
+        // the listener is closed asynchronously, wait until the port is released for the next test
+        for (int i = 0; i < 50; i++) {
+            try {
+                new ServerSocket(9999).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
     }
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.undertow;
+
+import io.undertow.Undertow;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.core.protocol.Handshake;
+import io.undertow.websockets.core.protocol.version13.Hybi13Handshake;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.WebSocketHandlerAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static io.undertow.Handlers.path;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Custom headers and subprotocols of the upgrade request, against a server which supports the
+ * <code>v2.chat</code> subprotocol and sends the <code>X-Client</code> header back.
+ */
+public class UndertowHandshakeTest {
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+
+    private Undertow server;
+
+    @Before
+    public void bootUndertow() {
+        final Handshake handshake = new Hybi13Handshake(new HashSet<String>(Arrays.asList("v2.chat")), false);
+        server = Undertow.builder()
+                .addHttpListener(9999, "localhost")
+                .setHandler(path()
+                        .addPrefixPath("/echo", new WebSocketProtocolHandshakeHandler(Collections.singletonList(handshake),
+                                new WebSocketConnectionCallback() {
+
+                            @Override
+                            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                                WebSockets.sendText(String.valueOf(exchange.getRequestHeader("X-Client")), channel, null);
+                                channel.resumeReceives();
+                            }
+                        }))).build();
+        server.start();
+    }
+
+    @After
+    public void shutdownUndertow() throws InterruptedException {
+        server.stop();
+
+        // the listener is closed asynchronously, wait until the port is released for the next test
+        for (int i = 0; i < 50; i++) {
+            try {
+                new ServerSocket(9999).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @Test
+    public void builderAppliesHeadersAndSubprotocols() throws Exception {
+        final SimpleWebSocketClient client = new SimpleWebSocketClient.Builder("ws://localhost:9999/echo")
+                .subprotocols("v1.chat", "v2.chat")
+                .header("X-Client", "builder")
+                .handler(handler())
+                .build();
+
+        client.connect();
+
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("builder");
+        assertThat(client.getSubprotocol()).isEqualTo("v2.chat");
+        client.close();
+    }
+
+    @Test
+    public void settersApplyHeadersAndSubprotocols() throws Exception {
+        final SimpleWebSocketClient client = new SimpleWebSocketClient("ws://localhost:9999/echo");
+        client.setSubprotocols("v2.chat");
+        client.setHeaders(Collections.<String, List<String>>singletonMap("X-Client", Arrays.asList("setter")));
+        client.setWebSocketHandler(handler());
+
+        client.connect();
+
+        assertThat(received.poll(2000, TimeUnit.MILLISECONDS)).isEqualTo("setter");
+        assertThat(client.getSubprotocol()).isEqualTo("v2.chat");
+        client.close();
+    }
+
+    private WebSocketHandlerAdapter handler() {
+        return new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+        };
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright Matthias Weßendorf.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.wessendorf.websocket.undertow;
+
+import io.undertow.Undertow;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import net.wessendorf.websocket.SharedSslContext;
+import net.wessendorf.websocket.SimpleWebSocketClient;
+import net.wessendorf.websocket.WebSocketHandlerAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.KeyStore;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static io.undertow.Handlers.path;
+import static io.undertow.Handlers.websocket;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Echo over wss, with the self-signed certificate of <code>localhost.jks</code>.
+ */
+public class UndertowTlsTest {
+
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    private Undertow server;
+
+    @Before
+    public void bootUndertow() throws Exception {
+        server = Undertow.builder()
+                .addHttpsListener(9999, "localhost", sslContext())
+                .setHandler(path()
+                        .addPrefixPath("/echo", websocket(new WebSocketConnectionCallback() {
+
+                            @Override
+                            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+
+                                    @Override
+                                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                                        WebSockets.sendText(message.getData(), channel, null);
+                                    }
+                                });
+                                channel.resumeReceives();
+                            }
+                        }))).build();
+        server.start();
+    }
+
+    @After
+    public void shutdownUndertow() throws InterruptedException {
+        server.stop();
+
+        // the listener is closed asynchronously, wait until the port is released for the next test
+        for (int i = 0; i < 50; i++) {
+            try {
+                new ServerSocket(9999).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @Test
+    public void reconnectsResumeSessions() throws Exception {
+        final SharedSslContext sslContext = new SharedSslContext(null, trustManagers(), 100, 3600);
+
+        for (int i = 0; i < 3; i++) {
+            final SimpleWebSocketClient client = new SimpleWebSocketClient("wss://localhost:9999/echo");
+            client.setSslContext(sslContext);
+            echo(client);
+        }
+
+        assertThat(sslContext.getHandshakes()).isEqualTo(3);
+        assertThat(sslContext.getResumedHandshakes()).isEqualTo(2);
+        assertThat(sslContext.getResumptionRate()).isGreaterThan(0.6);
+    }
+
+    @Test
+    public void separateContextsDoFullHandshakes() throws Exception {
+        final SharedSslContext first = new SharedSslContext(null, trustManagers());
+        final SharedSslContext second = new SharedSslContext(null, trustManagers());
+
+        for (SharedSslContext sslContext : new SharedSslContext[] {first, second}) {
+            final SimpleWebSocketClient client = new SimpleWebSocketClient("wss://localhost:9999/echo");
+            client.setSslContext(sslContext);
+            echo(client);
+        }
+
+        assertThat(first.getResumedHandshakes() + second.getResumedHandshakes()).isEqualTo(0);
+        assertThat(first.getHandshakes() + second.getHandshakes()).isEqualTo(2);
+    }
+
+    private void echo(final SimpleWebSocketClient client) throws InterruptedException {
+        final CountDownLatch echoed = new CountDownLatch(1);
+        client.setWebSocketHandler(new WebSocketHandlerAdapter() {
+            @Override
+            public void onMessage(String message) {
+                echoed.countDown();
+            }
+        });
+        client.connect();
+        client.sendText("Hello");
+        assertThat(echoed.await(2000, TimeUnit.MILLISECONDS)).isTrue();
+        client.close();
+    }
+
+    /**
+     * The server context, with the default protocols.
+     */
+    private static SSLContext sslContext() throws Exception {
+        final KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore(), PASSWORD);
+        final SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        return context;
+    }
+
+    private static TrustManager[] trustManagers() throws Exception {
+        final TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore());
+        return trustManagers.getTrustManagers();
+    }
+
+    private static KeyStore keyStore() throws Exception {
+        final KeyStore keyStore = KeyStore.getInstance("JKS");
+        final InputStream in = UndertowTlsTest.class.getResourceAsStream("/localhost.jks");
+        try {
+            keyStore.load(in, PASSWORD);
+        } finally {
+            in.close();
+        }
+        return keyStore;
+    }
+}
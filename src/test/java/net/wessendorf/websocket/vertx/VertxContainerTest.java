@@ -34,4 +34,9 @@ public class VertxContainerTest extends AbstractSimpleClientTest {
     public void shutdownVertx() {
         server.stop();
     }
+
+    @Override
+    protected boolean stampsProbes() {
+        return true;
+    }
 }
@@ -15,6 +15,8 @@
  */
 package net.wessendorf.websocket.vertx;
 
+import net.wessendorf.websocket.LatencyProbe;
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.VertxFactory;
@@ -24,6 +26,9 @@ import org.vertx.java.core.http.ServerWebSocket;
 import org.vertx.java.core.http.WebSocketFrame;
 import org.vertx.java.core.http.impl.ws.WebSocketFrameInternal;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class WebSocketServer {
 
     private HttpServer httpServer;
@@ -40,13 +45,35 @@ public class WebSocketServer {
                 if (ws.path().equals("/echo")) {
 
                     ws.frameHandler(new Handler<WebSocketFrame>() {
+                        // fragments of the current message
+                        private Buffer message;
+                        private boolean text;
+
                         @Override
                         public void handle(WebSocketFrame webSocketFrame) {
-                            if (webSocketFrame.isBinary()) {
-                                Buffer buff = new Buffer(((WebSocketFrameInternal) webSocketFrame).getBinaryData());
-                                ws.writeBinaryFrame(buff);
-                            } else if (webSocketFrame.isText()) {
-                                ws.writeTextFrame(webSocketFrame.textData());
+                            final long receivedAt = LatencyProbe.now();
+                            final Buffer data = new Buffer(((WebSocketFrameInternal) webSocketFrame).getBinaryData());
+                            if (webSocketFrame.type() == WebSocketFrame.FrameType.CONTINUATION) {
+                                message.appendBuffer(data);
+                            } else if (webSocketFrame.isBinary() || webSocketFrame.isText()) {
+                                message = data;
+                                text = webSocketFrame.isText();
+                            } else {
+                                return;
+                            }
+
+                            if (webSocketFrame.isFinalFrame()) {
+                                if (text) {
+                                    ws.writeTextFrame(message.toString("UTF-8"));
+                                } else {
+                                    // latency probes get the server's receive and send time stamped in
+                                    if (message.length() == LatencyProbe.LENGTH && message.getInt(0) == LatencyProbe.MAGIC) {
+                                        message.setLong(LatencyProbe.SERVER_RECEIVED_OFFSET, receivedAt);
+                                        message.setLong(LatencyProbe.SERVER_SENT_OFFSET, LatencyProbe.now());
+                                    }
+                                    ws.writeBinaryFrame(message);
+                                }
+                                message = null;
                             }
                         }
                     });
@@ -55,11 +82,35 @@ public class WebSocketServer {
                     ws.reject();
                 }
             }
-        }).listen(port);
+        });
+
+        // wait until the server is listening
+        final CountDownLatch listening = new CountDownLatch(1);
+        httpServer.listen(port, new Handler<AsyncResult<HttpServer>>() {
+            @Override
+            public void handle(AsyncResult<HttpServer> result) {
+                listening.countDown();
+            }
+        });
+        await(listening);
     }
 
     public void stop() {
-        httpServer.close();
+        final CountDownLatch closed = new CountDownLatch(1);
+        httpServer.close(new Handler<AsyncResult<Void>>() {
+            @Override
+            public void handle(AsyncResult<Void> result) {
+                closed.countDown();
+            }
+        });
+        await(closed);
+    }
 
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }